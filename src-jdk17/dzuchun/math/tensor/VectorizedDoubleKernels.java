@@ -0,0 +1,96 @@
+package dzuchun.math.tensor;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link DoubleKernels} using Vector API, so loops are compiled to SIMD
+ * instructions of the widest width CPU supports. Requires JDK 17+ with
+ * {@code --add-modules jdk.incubator.vector}, is picked up at runtime.
+ *
+ * @author dzu
+ *
+ */
+class VectorizedDoubleKernels extends DoubleKernels {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	String name() {
+		return "vector " + SPECIES;
+	}
+
+	@Override
+	void add(double[] a, double[] b, double[] dest) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(dest.length); i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(dest, i);
+		}
+		for (; i < dest.length; i++) {
+			dest[i] = a[i] + b[i];
+		}
+	}
+
+	@Override
+	void sub(double[] a, double[] b, double[] dest) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(dest.length); i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, i)).intoArray(dest, i);
+		}
+		for (; i < dest.length; i++) {
+			dest[i] = a[i] - b[i];
+		}
+	}
+
+	@Override
+	void neg(double[] a, double[] dest) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(dest.length); i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, a, i).neg().intoArray(dest, i);
+		}
+		for (; i < dest.length; i++) {
+			dest[i] = -a[i];
+		}
+	}
+
+	@Override
+	void scale(double[] a, double s, double[] dest) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(dest.length); i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, a, i).mul(s).intoArray(dest, i);
+		}
+		for (; i < dest.length; i++) {
+			dest[i] = a[i] * s;
+		}
+	}
+
+	@Override
+	void axpy(double a, double[] x, double[] y) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(y.length); i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, x, i).mul(a).add(DoubleVector.fromArray(SPECIES, y, i)).intoArray(y, i);
+		}
+		for (; i < y.length; i++) {
+			y[i] += a * x[i];
+		}
+	}
+
+	@Override
+	double dot(double[] a, int baseA, int[] offA, double[] b, int baseB, int[] offB) {
+		int s = 0;
+		int bound = SPECIES.loopBound(offA.length);
+		double res = 0.0d;
+		if (bound > 0) {
+			DoubleVector acc = DoubleVector.zero(SPECIES);
+			for (; s < bound; s += SPECIES.length()) {
+				acc = DoubleVector.fromArray(SPECIES, a, baseA, offA, s)
+						.fma(DoubleVector.fromArray(SPECIES, b, baseB, offB, s), acc);
+			}
+			res = acc.reduceLanes(VectorOperators.ADD);
+		}
+		for (; s < offA.length; s++) {
+			res += a[baseA + offA[s]] * b[baseB + offB[s]];
+		}
+		return res;
+	}
+}
@@ -1,138 +1,79 @@
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Map;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntToDoubleFunction;
 
-import javax.imageio.stream.FileImageOutputStream;
-import javax.imageio.stream.ImageOutputStream;
-
-import com.memorynotfound.image.GifSequenceWriter;
-
-import dzuchun.math.Ring;
 import dzuchun.math.solve.DifferentialEquation;
-import dzuchun.math.tensor.Tensor;
-import dzuchun.math.tensor.TensorField;
-import dzuchun.util.PrimitiveWrapper;
+import dzuchun.math.solve.EnsembleSolver;
+import dzuchun.math.solve.EnsembleState;
+import dzuchun.math.solve.ParallelSolver;
+import dzuchun.math.solve.TrajectoryFileReader;
+import dzuchun.math.solve.TrajectoryFileWriter;
+import dzuchun.math.tensor.DoubleTensor;
+import dzuchun.math.tensor.DoubleTensorField;
+import dzuchun.render.FramePipeline;
+import dzuchun.render.FrameSequenceExporter;
+import dzuchun.render.PaletteGifWriter;
+import dzuchun.render.Rasteriser;
+import dzuchun.render.SegmentBatch;
 
 public class Main {
 
-	public static class DWrapper extends PrimitiveWrapper<Double> {
-
-		public DWrapper(Double valueIn) {
-			super(valueIn);
-		}
-
-		public DWrapper copy() {
-			return new DWrapper(this.value);
-		}
-
-	}
-
-	public static Ring<DWrapper> dRing = new Ring<DWrapper>() {
-
-		@Override
-		public Main.DWrapper mul(Main.DWrapper t1, Main.DWrapper t2, boolean write1, boolean write2) {
-			double res = t1.value * t2.value;
-			if (write1) {
-				t1.value = res;
-				if (write2) {
-					t2.value = res;
-				}
-				return t1;
-			} else if (write2) {
-				t2.value = res;
-				return t2;
-			}
-			return new DWrapper(res);
-		}
-
-		@Override
-		public Main.DWrapper one() {
-			return new DWrapper(1.0d);
-		}
-
-		@Override
-		public Main.DWrapper add(Main.DWrapper t1, Main.DWrapper t2, boolean write1, boolean write2) {
-			double res = t1.value + t2.value;
-			if (write1) {
-				t1.value = res;
-				if (write2) {
-					t2.value = res;
-				}
-				return t1;
-			} else if (write2) {
-				t2.value = res;
-				return t2;
-			}
-			return new DWrapper(res);
-		}
-
-		@Override
-		public Main.DWrapper neg(Main.DWrapper t, boolean write) {
-			double res = -t.value;
-			if (write) {
-				t.value = res;
-				return t;
-			}
-			return new DWrapper(res);
-		}
-
-		@Override
-		public Main.DWrapper scale(Main.DWrapper t, double scalar, boolean write) {
-			double res = t.value * scalar;
-			if (write) {
-				t.value = res;
-				return t;
-			}
-			return new DWrapper(res);
-		}
-
-		@Override
-		public Main.DWrapper zero() {
-			return new DWrapper(0.0d);
-		}
-	};
-
-	public static class State extends Tensor<DWrapper> {
+	public static class State extends DoubleTensor {
 
 		public State(double x, double vx) {
-			super(1, 2, DWrapper::copy, new DWrapper(x), new DWrapper(vx));
+			super(1, 2, x, vx);
 		}
 
-		public State(DWrapper... wrappers) {
-			super(1, 2, DWrapper::copy, wrappers);
+		public State(double[] valuesIn) {
+			super(1, 2, valuesIn);
 		}
 
-		public DWrapper coord() {
-			return this.getComponentAt(0);
+		public double coord() {
+			return this.getValue(0);
 		}
 
-		public DWrapper speed() {
-			return this.getComponentAt(1);
+		public double speed() {
+			return this.getValue(1);
 		}
 
 	}
 
-	public static TensorField<DWrapper, State> tF = new TensorField<DWrapper, State>(dRing, new DWrapper[1],
-			DWrapper::copy, (o, s, cF, comp) -> new State(comp));
+	public static DoubleTensorField<State> tF = new DoubleTensorField<State>((o, s, v) -> new State(v));
 
 	public static void main(String[] args) {
 		// Physics params
 		final double w02 = 1;
 		final double gamma = 0;
+		// Pendulum is x' = v, v' = acceleration(x, v), shared by both solvers
+		final DoubleBinaryOperator acceleration = (x, v) -> -gamma * v - w02 * Math.sin(x);
+		final IntToDoubleFunction initialSpeed = n -> 0.06 * n - 3;
 
 		final int states = 100;
 
 		// Simulation params
-		State state0;
 		final double tb = 0;
 		final double te = 20;
 		final double dt = 0.001;
+		final double tol = 1e-9;
 		final int frms = 60;
-		final int df = (int) (te / dt / frms);
+		final int df = 20; // Samples per frame
+		final double[] times = new double[frms * df + 1];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = tb + (te - tb) * i / (times.length - 1);
+		}
 
 		// Visuals params
 		final double xMin = -3 * Math.PI;
@@ -145,79 +86,135 @@ public class Main {
 		final int frameWidth = 192 * 5;
 		final int frameHeight = 108 * 5;
 
-		@SuppressWarnings("unchecked")
-		Map<Double, State>[] results = new Map[states];
-		for (int n = 0; n < states; n++) {
-			System.out.print(String.format("Running simulation %d/%d...", n, states));
-			state0 = new State(0, 0.06*n-3);
-			results[n] = DifferentialEquation.sOFOTDERK(tb, te, dt, dt / 1000, e -> e.value > 0.000001, state0,
-					(t, state) -> {
-						return new State(state.speed().value,
-								-gamma * state.speed().value - w02 * Math.sin(state.coord().value));
-					}, tF);
-			System.out.println("done!");
-		}
 		BufferedImage frame = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_INT_RGB);
-		// Creating and transforming graphics
-		Graphics2D g = frame.createGraphics();
+		Rasteriser rasteriser = new Rasteriser(frame);
 
-		System.out.println("Simulaions finished, creating gif...");
 		try {
-			// Gif output setup
-			final ImageOutputStream output = new FileImageOutputStream(
-					new File("./tmp/test-" + System.currentTimeMillis() + ".gif"));
-			final GifSequenceWriter writer = new GifSequenceWriter(output, BufferedImage.TYPE_4BYTE_ABGR, 1, true);
-
-			// Starting frame generation
-			@SuppressWarnings("unchecked")
-			final Iterator<State>[] streams = new Iterator[states];
-			for (int n = 0; n < states; n++) {
-				streams[n] = results[n].entrySet().stream()
-						.sorted((e2, e1) -> (int) ((e2.getKey() - e1.getKey()) / te * 1000)).map(e -> e.getValue())
-						.iterator();
-			}
-			double[] prevX = new double[states];
-			double[] prevY = new double[states];
-			Color[] colors = new Color[states];
-			State s;
-			int frameCounter = df;
-			// Initialising previous points and colors
-			Color skyBlue = new Color(0, 87, 184);
-			Color wheatYellow = new Color(255, 215, 0);
-			for (int n = 0; n < states; n++) {
-				s = streams[n].next();
-				prevX[n] = (s.coord().value - xC) / (xMax - xMin) * frameWidth + frameWidth / 2;
-				prevY[n] = (s.speed().value - vC) / (vMax - vMin) * frameHeight + frameHeight / 2;
-//				colors[n] = new Color((int) (127.5 + 128 * (Math.cos(2 * Math.PI * n / states))),
-//						(int) (127.5 + 128 * (Math.cos(2 * Math.PI * n / states + 2 * Math.PI / 3))),
-//						(int) (127.5 + 128 * (Math.cos(2 * Math.PI * n / states - 2 * Math.PI / 3))));
-				colors[n] = (n >= states / 2) ? bleach(skyBlue, ((double) n / states) - 0.5)
-						: bleach(wheatYellow, (0.5 - ((double) n / states)));
-			}
-			double tmpX, tmpY;
-			int fr = 1;
-			while (streams[0].hasNext()) {
-				// Draw corresponding lines
+			// Streaming mode simulates and draws in lock-step, keeping no trajectories
+			final boolean stream = (args.length > 0) && "--stream".equals(args[0]);
+			final Path data;
+			if (stream) {
+				data = null;
+			} else if (args.length > 0) {
+				// Re-rendering trajectories simulated before
+				data = Paths.get(args[0]);
+			} else {
+				data = Paths.get("./tmp/trajectories-" + System.currentTimeMillis() + ".bin");
+				List<Integer> initial = new ArrayList<Integer>(states);
 				for (int n = 0; n < states; n++) {
-					s = streams[n].next();
-					g.setColor(colors[n]);
-					tmpX = (s.coord().value - xC) / (xMax - xMin) * frameWidth + frameWidth / 2;
-					tmpY = (s.speed().value - vC) / (vMax - vMin) * frameHeight + frameHeight / 2;
-					g.drawLine((int) tmpX, (int) tmpY, (int) prevX[n], (int) prevY[n]);
-					prevX[n] = tmpX;
-					prevY[n] = tmpY;
+					initial.add(n);
 				}
-
-				// Write frame if needed
-				frameCounter--;
-				if (frameCounter == 0) {
-					System.out.println(String.format("Writing frame %d/%d", fr++, frms));
-					writer.writeToSequence(frame);
-					frameCounter = df;
+				ParallelSolver solver = new ParallelSolver(Runtime.getRuntime().availableProcessors());
+				System.out.println(
+						String.format("Running %d simulations on %d threads...", states, solver.getParallelism()));
+				try (TrajectoryFileWriter results = new TrajectoryFileWriter(data, states, 2, times.length)) {
+					solver.solveAll(initial, n -> {
+						DifferentialEquation.sOFOTDEDP(tb, times, dt, tol, tol, new State(0, initialSpeed.applyAsDouble(n)),
+								(t, state, dest) -> {
+									dest.setValue(state.speed(), 0);
+									dest.setValue(acceleration.applyAsDouble(state.coord(), state.speed()), 1);
+								}, tF, results.consumer(n));
+						return results.length(n);
+					}, (n, finished, total) -> System.out
+							.println(String.format("Simulation %d done (%d/%d)", n, finished, total)));
+				} finally {
+					solver.shutdown();
+				}
+				System.out.println("Simulaions finished, trajectories saved to " + data);
+			}
+			System.out.println("Creating gif...");
+			try (TrajectoryFileReader results = stream ? null : new TrajectoryFileReader(data)) {
+				final EnsembleSolver ensembleSolver;
+				final EnsembleState ensemble;
+				if (stream) {
+					ensembleSolver = new EnsembleSolver(2, states, (t, y, dest, from, to) -> {
+						for (int n = from; n < to; n++) {
+							dest[0][n] = y[1][n];
+							dest[1][n] = acceleration.applyAsDouble(y[0][n], y[1][n]);
+						}
+					}, ForkJoinPool.commonPool(), 1024);
+					ensemble = new EnsembleState(2, states);
+					for (int n = 0; n < states; n++) {
+						ensemble.setState(n, 0, initialSpeed.applyAsDouble(n));
+					}
+				} else {
+					ensembleSolver = null;
+					ensemble = null;
+				}
+				final int trajectories = stream ? states : results.trajectories;
+				// Starting frame generation
+				double[] prevX = new double[trajectories];
+				double[] prevY = new double[trajectories];
+				int[] colors = new int[trajectories];
+				int frameCounter = df;
+				// Initialising previous points and colors
+				Color skyBlue = new Color(0, 87, 184);
+				Color wheatYellow = new Color(255, 215, 0);
+				for (int n = 0; n < trajectories; n++) {
+					prevX[n] = ((stream ? ensemble.get(0, n) : results.get(n, 0, 0)) - xC) / (xMax - xMin) * frameWidth
+							+ frameWidth / 2;
+					prevY[n] = ((stream ? ensemble.get(1, n) : results.get(n, 0, 1)) - vC) / (vMax - vMin) * frameHeight
+							+ frameHeight / 2;
+	//				colors[n] = new Color((int) (127.5 + 128 * (Math.cos(2 * Math.PI * n / states))),
+	//						(int) (127.5 + 128 * (Math.cos(2 * Math.PI * n / states + 2 * Math.PI / 3))),
+	//						(int) (127.5 + 128 * (Math.cos(2 * Math.PI * n / states - 2 * Math.PI / 3))));
+					colors[n] = ((n >= trajectories / 2) ? bleach(skyBlue, ((double) n / trajectories) - 0.5)
+							: bleach(wheatYellow, (0.5 - ((double) n / trajectories)))).getRGB();
+				}
+				// Gif output setup, palette is a background and trajectory colors
+				Set<Integer> palette = new LinkedHashSet<Integer>();
+				palette.add(Color.BLACK.getRGB());
+				for (int n = 0; (n < trajectories) && (palette.size() < 256); n++) {
+					palette.add(colors[n]);
+				}
+				// Closed in reverse order, so frames in flight reach the gif before it's trailer
+				try (OutputStream output = new BufferedOutputStream(
+						new FileOutputStream(new File("./tmp/test-" + System.currentTimeMillis() + ".gif")));
+						PaletteGifWriter writer = new PaletteGifWriter(output, frameWidth, frameHeight,
+								palette.stream().mapToInt(Integer::intValue).toArray(), 1, true);
+						// Encoding runs on it's own thread, overlapping with drawing
+						FramePipeline pipeline = new FramePipeline(4, 1, null, writer);
+						// Frame sequence for external video tools, if a directory is given
+						FrameSequenceExporter exporter = (args.length > 1)
+								? new FrameSequenceExporter(Paths.get(args[1]), "frame-",
+										FrameSequenceExporter.Format.PNG, Runtime.getRuntime().availableProcessors(), 8)
+								: null) {
+					double tmpX, tmpY;
+					int fr = 1;
+					final long points = stream ? times.length : results.length(0);
+					// Lines of a whole frame are drawn at once
+					SegmentBatch segments = new SegmentBatch(trajectories * df);
+					for (long i = 1; i < points; i++) {
+						if (stream) {
+							// Advancing all the states to the next sample
+							ensembleSolver.advance(times[(int) i - 1], times[(int) i], dt, ensemble, null);
+						}
+						// Collect corresponding lines
+						for (int n = 0; n < trajectories; n++) {
+							tmpX = ((stream ? ensemble.get(0, n) : results.get(n, i, 0)) - xC) / (xMax - xMin)
+									* frameWidth + frameWidth / 2;
+							tmpY = ((stream ? ensemble.get(1, n) : results.get(n, i, 1)) - vC) / (vMax - vMin)
+									* frameHeight + frameHeight / 2;
+							segments.add((int) tmpX, (int) tmpY, (int) prevX[n], (int) prevY[n], colors[n]);
+							prevX[n] = tmpX;
+							prevY[n] = tmpY;
+						}
+
+						// Write frame if needed
+						frameCounter--;
+						if (frameCounter == 0) {
+							rasteriser.draw(segments);
+							segments.clear();
+							System.out.println(String.format("Writing frame %d/%d", fr++, frms));
+							pipeline.submit(frame);
+							if (exporter != null) {
+								exporter.write(frame);
+							}
+							frameCounter = df;
+						}
+					}
 				}
 			}
-			writer.close();
-			output.close();
 			System.out.println("Gif written!");
 		} catch (IOException e) {
 			e.printStackTrace();
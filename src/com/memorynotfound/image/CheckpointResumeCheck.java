@@ -0,0 +1,196 @@
+package com.memorynotfound.image;
+
+import dzuchun.math.solve.BDF;
+import dzuchun.math.solve.Checkpoint;
+import dzuchun.math.solve.CheckpointWriter;
+import dzuchun.math.solve.Derivative;
+import dzuchun.math.solve.DifferentialEquation;
+import dzuchun.math.solve.EnsembleDerivative;
+import dzuchun.math.solve.EnsembleSolver;
+import dzuchun.math.solve.EnsembleState;
+import dzuchun.math.solve.Rosenbrock23;
+import dzuchun.math.solve.SymplecticIntegrator;
+import dzuchun.math.tensor.DoubleTensor;
+import dzuchun.math.tensor.DoubleTensorField;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Interrupts a run of every checkpointing solver half way, resumes it from the last checkpoint file and compares
+ * every state reported after the checkpoint with an uninterrupted run. They must be bit-identical. Exits with
+ * status 1 on a mismatch.
+ */
+public class CheckpointResumeCheck {
+    private static final DoubleTensorField<DoubleTensor> TF =
+            new DoubleTensorField<DoubleTensor>((order, size, values) -> new DoubleTensor(order, size, values));
+
+    /**
+     * Damped driven pendulum.
+     */
+    private static final Derivative<DoubleTensor> PENDULUM = (t, y, dest) -> {
+        dest.setValue(y.getValue(1), 0);
+        dest.setValue(-0.1 * y.getValue(1) - Math.sin(y.getValue(0)) + 0.3 * Math.cos(t), 1);
+    };
+
+    /**
+     * Robertson's chemical kinetics, a classic stiff problem.
+     */
+    private static final Derivative<DoubleTensor> ROBERTSON = (t, y, dest) -> {
+        double y1 = y.getValue(0), y2 = y.getValue(1), y3 = y.getValue(2);
+        dest.setValue(-0.04 * y1 + 1e4 * y2 * y3, 0);
+        dest.setValue(0.04 * y1 - 1e4 * y2 * y3 - 3e7 * y2 * y2, 1);
+        dest.setValue(3e7 * y2 * y2, 2);
+    };
+
+    /**
+     * Receives a reported state, written out with all digits.
+     */
+    private interface Output {
+        void accept(double t, String state);
+    }
+
+    /**
+     * Runs a solver from the start, or from {@code resume}, passing checkpoints to {@code checkpoints}.
+     */
+    private interface Run {
+        void run(Output output, Checkpoint resume, CheckpointWriter checkpoints);
+    }
+
+    private static class Interrupt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double[] times = new double[2001];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i * 0.01;
+        }
+        SymplecticIntegrator<Double, DoubleTensor> symplectic = new SymplecticIntegrator<Double, DoubleTensor>(
+                SymplecticIntegrator.Scheme.PEFRL, new DoubleTensor(1, 1),
+                (t, p, dest) -> dest.setValue(p.getValue(0), 0),
+                (t, q, dest) -> dest.setValue(-Math.sin(q.getValue(0)) + 0.2 * Math.cos(t), 0), TF);
+        EnsembleDerivative ensembleDerivative = (t, y, dest, from, to) -> {
+            for (int n = from; n < to; n++) {
+                dest[0][n] = y[1][n];
+                dest[1][n] = -0.1 * y[1][n] - Math.sin(y[0][n]);
+            }
+        };
+        EnsembleSolver ensembleSolver = new EnsembleSolver(2, 100, ensembleDerivative);
+
+        long failures = 0;
+        failures += check("Runge-Kutta", (output, resume, checkpoints) -> DifferentialEquation.sOFOTDERK(0, 20, 0.01,
+                1e-4, (Double e) -> e > 1e-16, new DoubleTensor(1, 2, 0, 2.5), PENDULUM, TF,
+                (t, y) -> output.accept(t, key(y)), resume, checkpoints));
+        failures += check("Dormand-Prince", (output, resume, checkpoints) -> DifferentialEquation.sOFOTDEDP(0, times,
+                0, 1e-10, 1e-10, new DoubleTensor(1, 2, 0, 2.5), PENDULUM, TF,
+                (t, y) -> output.accept(t, key(y)), resume, checkpoints));
+        failures += check("Rosenbrock23", (output, resume, checkpoints) -> {
+            Rosenbrock23<DoubleTensor> solver = new Rosenbrock23<DoubleTensor>(robertsonStart(), ROBERTSON, null,
+                    TF, 1e-10, 1e-6);
+            if (resume == null) {
+                solver.init(0, robertsonStart(), 0);
+                output.accept(0, key(robertsonStart()));
+            } else {
+                solver.restore(resume);
+            }
+            solver.advance(1e5, (t, y) -> output.accept(t, key(y)), checkpoints);
+        });
+        failures += check("BDF", (output, resume, checkpoints) -> {
+            BDF<DoubleTensor> solver = new BDF<DoubleTensor>(robertsonStart(), ROBERTSON, null, TF, 1e-10, 1e-6);
+            if (resume == null) {
+                solver.init(0, robertsonStart(), 0);
+                output.accept(0, key(robertsonStart()));
+            } else {
+                solver.restore(resume);
+            }
+            solver.advance(1e5, (t, y) -> output.accept(t, key(y)), checkpoints);
+        });
+        failures += check("Symplectic", (output, resume, checkpoints) -> symplectic.solve(0, 100, 0.013,
+                new DoubleTensor(1, 1, 1.0), new DoubleTensor(1, 1, 0.5),
+                (t, q, p) -> output.accept(t, q.getValue(0) + "," + p.getValue(0)), resume, checkpoints));
+        failures += check("Ensemble", (output, resume, checkpoints) -> {
+            EnsembleState state = new EnsembleState(2, 100);
+            for (int n = 0; n < 100; n++) {
+                state.setState(n, 0, 0.06 * n - 3);
+            }
+            ensembleSolver.advance(0, 50, 0.01, state,
+                    (t, y) -> output.accept(t, Arrays.toString(y.columns[0]) + Arrays.toString(y.columns[1])),
+                    resume, checkpoints);
+        });
+        System.out.println(failures == 0 ? "All resumed runs match" : failures + " resumed runs differ");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return 1 if resumed run differs from uninterrupted one, 0 otherwise.
+     */
+    private static int check(String name, Run run) throws IOException {
+        List<Double> times = new ArrayList<Double>();
+        List<String> states = new ArrayList<String>();
+        run.run((t, state) -> {
+            times.add(t);
+            states.add(state);
+        }, null, null);
+
+        File file = File.createTempFile("resume-check", ".ckpt");
+        file.deleteOnExit();
+        Path path = file.toPath();
+        int interruptAt = states.size() / 2;
+        int[] reported = {0};
+        CheckpointWriter writer = new CheckpointWriter(path, 0);
+        try {
+            run.run((t, state) -> {
+                if (++reported[0] == interruptAt) {
+                    throw new Interrupt();
+                }
+                // Writer skips checkpoints while busy, waiting makes the last one close to interruption
+                while (!writer.isDue()) {
+                    Thread.yield();
+                }
+            }, null, writer);
+        } catch (Interrupt e) {
+            // Simulated crash
+        } finally {
+            writer.close();
+        }
+
+        Checkpoint checkpoint = Checkpoint.read(path);
+        List<String> resumed = new ArrayList<String>();
+        List<Double> resumedTimes = new ArrayList<Double>();
+        run.run((t, state) -> {
+            resumedTimes.add(t);
+            resumed.add(state);
+        }, checkpoint, null);
+
+        // Everything after the checkpoint must be reported again, exactly as before
+        int first = 0;
+        while ((first < times.size()) && (times.get(first) <= checkpoint.t)) {
+            first++;
+        }
+        boolean match = resumedTimes.equals(times.subList(first, times.size()))
+                && resumed.equals(states.subList(first, states.size()));
+        System.out.println(String.format("%s: checkpoint at t=%s after %d steps, %d/%d states resumed, %s", name,
+                checkpoint.t, checkpoint.steps, resumed.size(), states.size() - first,
+                match ? "identical" : "DIFFERENT"));
+        return match ? 0 : 1;
+    }
+
+    private static DoubleTensor robertsonStart() {
+        return new DoubleTensor(1, 3, 1, 0, 0);
+    }
+
+    private static String key(DoubleTensor y) {
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < y.length(); i++) {
+            res.append(i == 0 ? "" : ",").append(y.getValue(i));
+        }
+        return res.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.memorynotfound.image;
+
+import dzuchun.render.PaletteGifWriter;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes random frames with {@link PaletteGifWriter}, reads them back with ImageIO's GIF reader and compares
+ * composited pixels. Palettes of 1 to 256 colours, unchanged frames and both frame types are covered. Exits with
+ * status 1 on a mismatch.
+ */
+public class PaletteGifWriterCheck {
+
+    public static void main(String[] args) throws Exception {
+        int width = 301, height = 97, frames = 6;
+        long failures = 0;
+        for (int colours : new int[]{1, 2, 3, 200, 255, 256}) {
+            for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR}) {
+                Random random = new Random(colours);
+                int[] palette = new int[colours];
+                for (int i = 0; i < colours; i++) {
+                    palette[i] = random.nextInt(1 << 24);
+                }
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                BufferedImage image = new BufferedImage(width, height, type);
+                List<int[]> expected = new ArrayList<int[]>();
+                try (PaletteGifWriter writer = new PaletteGifWriter(bytes, width, height, palette, 100, true)) {
+                    for (int f = 0; f < frames; f++) {
+                        // Full first frame, a frame without changes, and growing numbers of changed pixels
+                        int changes = (f == 0) ? width * height : ((f == 3) ? 0 : 500 * f);
+                        for (int k = 0; k < changes; k++) {
+                            int x = (f == 0) ? k % width : random.nextInt(width);
+                            int y = (f == 0) ? k / width : random.nextInt(height);
+                            image.setRGB(x, y, palette[random.nextInt(colours)]);
+                        }
+                        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+                        for (int i = 0; i < pixels.length; i++) {
+                            pixels[i] &= 0xFFFFFF;
+                        }
+                        expected.add(pixels);
+                        writer.write(image);
+                    }
+                }
+
+                ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+                reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+                int[] canvas = new int[width * height];
+                long differing = 0;
+                int read = reader.getNumImages(true);
+                for (int f = 0; f < Math.min(read, frames); f++) {
+                    composite(reader, f, canvas, width);
+                    for (int i = 0; i < canvas.length; i++) {
+                        if (canvas[i] != expected.get(f)[i]) {
+                            differing++;
+                        }
+                    }
+                }
+                reader.dispose();
+                if ((read != frames) || (differing != 0)) {
+                    failures++;
+                }
+                System.out.println(String.format("%d colours, type %d: %d bytes, %d/%d frames, %d differing pixels",
+                        colours, type, bytes.size(), read, frames, differing));
+            }
+        }
+        System.out.println(failures == 0 ? "All round trips match" : failures + " round trips differ");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Draws a frame over the previous ones, as a viewer would. Frames may cover a part of the screen only, and
+     * leave unchanged pixels transparent.
+     */
+    private static void composite(ImageReader reader, int index, int[] canvas, int width) throws Exception {
+        BufferedImage image = reader.read(index);
+        IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(index)
+                .getAsTree("javax_imageio_gif_image_1.0");
+        IIOMetadataNode descriptor = (IIOMetadataNode) root.getElementsByTagName("ImageDescriptor").item(0);
+        int left = Integer.parseInt(descriptor.getAttribute("imageLeftPosition"));
+        int top = Integer.parseInt(descriptor.getAttribute("imageTopPosition"));
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int pixel = image.getRGB(x, y);
+                if ((pixel >>> 24) != 0) {
+                    canvas[((top + y) * width) + left + x] = pixel & 0xFFFFFF;
+                }
+            }
+        }
+    }
+}
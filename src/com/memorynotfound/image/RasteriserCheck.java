@@ -0,0 +1,97 @@
+package com.memorynotfound.image;
+
+import dzuchun.render.Rasteriser;
+import dzuchun.render.SegmentBatch;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+/**
+ * Draws random segments with {@link Rasteriser}, serially and split into bands, and compares both with a naive
+ * Bresenham that tests every point against the image bounds. Segments range from fully visible ones to ones
+ * reaching far outside the image. Exits with status 1 on a mismatch.
+ */
+public class RasteriserCheck {
+    private static final int WIDTH = 960, HEIGHT = 540;
+
+    public static void main(String[] args) {
+        long failures = 0;
+        for (int range : new int[]{WIDTH, 3 * WIDTH, 50000}) {
+            Random random = new Random(range);
+            int count = (range > 10000) ? 6000 : 2 * Rasteriser.PARALLEL_THRESHOLD;
+            int[][] segments = new int[count][];
+            SegmentBatch batch = new SegmentBatch(count);
+            for (int i = 0; i < count; i++) {
+                int[] s = new int[5];
+                for (int j = 0; j < 4; j++) {
+                    s[j] = random.nextInt(range) - (range / 2) + ((j % 2 == 0) ? WIDTH : HEIGHT) / 2;
+                }
+                s[4] = random.nextInt(1 << 24);
+                segments[i] = s;
+                batch.add(s[0], s[1], s[2], s[3], s[4]);
+            }
+
+            BufferedImage serial = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            new Rasteriser(serial, 1).draw(batch);
+            BufferedImage banded = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            new Rasteriser(banded, 37).draw(batch);
+            int[] expected = new int[WIDTH * HEIGHT];
+            for (int[] s : segments) {
+                bresenham(expected, s[0], s[1], s[2], s[3], s[4]);
+            }
+
+            long toNaive = differing(pixels(serial), expected);
+            long toSerial = differing(pixels(banded), pixels(serial));
+            if ((toNaive != 0) || (toSerial != 0)) {
+                failures++;
+            }
+            System.out.println(String.format("range %d, %d segments: %d pixels differ from naive, %d between bands"
+                    + " and serial", range, count, toNaive, toSerial));
+        }
+        System.out.println(failures == 0 ? "All drawings match" : failures + " drawings differ");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Textbook all-octant Bresenham, drawing only points inside the image.
+     */
+    private static void bresenham(int[] pixels, long x0, long y0, long x1, long y1, int rgb) {
+        long dx = Math.abs(x1 - x0), dy = -Math.abs(y1 - y0);
+        long sx = (x0 < x1) ? 1 : -1, sy = (y0 < y1) ? 1 : -1;
+        long err = dx + dy;
+        while (true) {
+            if ((x0 >= 0) && (x0 < WIDTH) && (y0 >= 0) && (y0 < HEIGHT)) {
+                pixels[(int) ((y0 * WIDTH) + x0)] = rgb;
+            }
+            if ((x0 == x1) && (y0 == y1)) {
+                return;
+            }
+            long e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y0 += sy;
+            }
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    private static long differing(int[] a, int[] b) {
+        long res = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (((a[i] ^ b[i]) & 0xFFFFFF) != 0) {
+                res++;
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,84 @@
+package com.memorynotfound.image;
+
+import dzuchun.math.solve.Derivative;
+import dzuchun.math.solve.DifferentialEquation;
+import dzuchun.math.solve.Jacobian;
+import dzuchun.math.solve.TrajectoryConsumer;
+import dzuchun.math.tensor.DoubleTensor;
+import dzuchun.math.tensor.DoubleTensorField;
+
+import java.util.Arrays;
+
+/**
+ * Solves Robertson's chemical kinetics problem, a classic stiff test, with Rosenbrock23 and BDF, using both finite
+ * difference and analytic Jacobians, and compares the states with published reference values. Exits with status 1
+ * if any component is off by more than {@value #TOLERANCE} relative.
+ */
+public class StiffSolverCheck {
+    private static final double TOLERANCE = 1e-4;
+    private static final double[] TIMES = {0, 0.4, 4, 40, 400};
+    private static final double[][] REFERENCE = {
+            {1, 0, 0},
+            {0.9851721, 3.386395e-5, 0.01479402},
+            {0.9055186, 2.240475e-5, 0.09445901},
+            {0.7158271, 9.185535e-6, 0.2841637},
+            {0.4505187, 3.222901e-6, 0.5494781},
+    };
+
+    private static final DoubleTensorField<DoubleTensor> TF =
+            new DoubleTensorField<DoubleTensor>((order, size, values) -> new DoubleTensor(order, size, values));
+
+    private static final Derivative<DoubleTensor> ROBERTSON = (t, y, dest) -> {
+        double y1 = y.getValue(0), y2 = y.getValue(1), y3 = y.getValue(2);
+        dest.setValue(-0.04 * y1 + 1e4 * y2 * y3, 0);
+        dest.setValue(0.04 * y1 - 1e4 * y2 * y3 - 3e7 * y2 * y2, 1);
+        dest.setValue(3e7 * y2 * y2, 2);
+    };
+
+    private static final Jacobian<DoubleTensor> ROBERTSON_JACOBIAN = (t, y, dest) -> {
+        double y2 = y.getValue(1), y3 = y.getValue(2);
+        double[] values = {
+                -0.04, 1e4 * y3, 1e4 * y2,
+                0.04, -1e4 * y3 - 6e7 * y2, -1e4 * y2,
+                0, 6e7 * y2, 0};
+        for (int i = 0; i < values.length; i++) {
+            dest.setValue(values[i], i);
+        }
+    };
+
+    public static void main(String[] args) {
+        long failures = 0;
+        for (String solver : new String[]{"Rosenbrock23", "BDF"}) {
+            for (Jacobian<DoubleTensor> jacobian : Arrays.asList(null, ROBERTSON_JACOBIAN)) {
+                String name = solver + ((jacobian == null) ? ", finite differences" : ", analytic Jacobian");
+                double[] worst = {0};
+                int[] index = {0};
+                TrajectoryConsumer<DoubleTensor> consumer = (t, y) -> {
+                    double[] expected = REFERENCE[index[0]++];
+                    for (int i = 0; i < 3; i++) {
+                        double error = Math.abs(y.getValue(i) - expected[i]) / Math.max(Math.abs(expected[i]), 1e-12);
+                        worst[0] = Math.max(worst[0], error);
+                    }
+                    System.out.println(String.format("%s: t=%-5s %.7e %.7e %.7e", name, t, y.getValue(0),
+                            y.getValue(1), y.getValue(2)));
+                };
+                DoubleTensor y0 = new DoubleTensor(1, 3, 1, 0, 0);
+                if ("BDF".equals(solver)) {
+                    DifferentialEquation.sOFOTDEBDF(0, TIMES, 0, 1e-10, 1e-6, y0, ROBERTSON, jacobian, TF, consumer);
+                } else {
+                    DifferentialEquation.sOFOTDERW(0, TIMES, 0, 1e-10, 1e-6, y0, ROBERTSON, jacobian, TF, consumer);
+                }
+                boolean ok = (index[0] == TIMES.length) && (worst[0] <= TOLERANCE);
+                if (!ok) {
+                    failures++;
+                }
+                System.out.println(String.format("%s: %d/%d states, largest relative error %.1e, %s", name, index[0],
+                        TIMES.length, worst[0], ok ? "ok" : "FAILED"));
+            }
+        }
+        System.out.println(failures == 0 ? "All solutions match the reference" : failures + " solutions differ");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package dzuchun.math;
+
+import java.util.Arrays;
+
+/**
+ * A dual number {@code value + sum(derivatives[i] * eps_i)}, where all
+ * products of {@code eps} are zero. Carries a value together with it's
+ * derivatives over a fixed number of directions (usually parameters), so
+ * calculating a function of dual numbers calculates it's derivatives as well.
+ * Is mutable, see {@link DualRing} for operations.
+ *
+ * @author dzu
+ *
+ */
+public class Dual {
+	public double value;
+	public final double[] derivatives;
+
+	/**
+	 * Creates a zero.
+	 *
+	 * @param dimensionIn Number of derivative directions.
+	 */
+	public Dual(int dimensionIn) {
+		this.derivatives = new double[dimensionIn];
+	}
+
+	/**
+	 * @param valueIn       Value.
+	 * @param derivativesIn Derivatives. Array is used as is.
+	 */
+	public Dual(double valueIn, double... derivativesIn) {
+		this.value = valueIn;
+		this.derivatives = derivativesIn;
+	}
+
+	/**
+	 * Creates unlinked copy of a dual number.
+	 *
+	 * @param d Dual number to copy.
+	 */
+	public Dual(Dual d) {
+		this.value = d.value;
+		this.derivatives = d.derivatives.clone();
+	}
+
+	/**
+	 * @return Number of derivative directions.
+	 */
+	public int dimension() {
+		return derivatives.length;
+	}
+
+	/**
+	 * @param direction Direction index.
+	 * @return Derivative in a direction.
+	 */
+	public double derivative(int direction) {
+		return derivatives[direction];
+	}
+
+	@Override
+	public String toString() {
+		return value + " " + Arrays.toString(derivatives);
+	}
+}
@@ -0,0 +1,270 @@
+package dzuchun.math;
+
+import java.util.Arrays;
+
+/**
+ * A field of {@link Dual} numbers with a fixed number of derivative
+ * directions, so it's a forward-mode automatic differentiation. Can be used as
+ * elements field of tensors:
+ *
+ * <pre>
+ * new TensorField&lt;Dual, Tensor&lt;Dual&gt;&gt;(ring, new Dual[1], Dual::new, Tensor::new,
+ * 		DualRing::magnitude)
+ * </pre>
+ *
+ * Solving an equation with parameters, that are {@link #variable variables},
+ * gives derivatives of a solution over these parameters in a single pass.
+ * <p>
+ * Dual numbers are mutable, write flags and destinations are respected.
+ * Destination may be one of the arguments.
+ *
+ * @author dzu
+ *
+ */
+public class DualRing extends Field<Dual> {
+	public final int dimension;
+
+	/**
+	 * @param dimensionIn Number of derivative directions.
+	 */
+	public DualRing(int dimensionIn) {
+		this.dimension = dimensionIn;
+	}
+
+	/**
+	 * @param value Value.
+	 * @return A dual number with zero derivatives.
+	 */
+	public Dual constant(double value) {
+		Dual res = new Dual(dimension);
+		res.value = value;
+		return res;
+	}
+
+	/**
+	 * @param value     Value.
+	 * @param direction Derivative direction, this variable is associated with.
+	 * @throws IllegalArgumentException If direction is out of range.
+	 * @return A dual number with unit derivative in a specified direction.
+	 */
+	public Dual variable(double value, int direction) throws IllegalArgumentException {
+		if ((direction < 0) || (direction >= dimension)) {
+			throw new IllegalArgumentException(String.format("Direction %d is out of range", direction));
+		}
+		Dual res = constant(value);
+		res.derivatives[direction] = 1;
+		return res;
+	}
+
+	/**
+	 * Absolute value of a dual number, ignoring derivatives. Meant to be a
+	 * magnitude function of a tensor field.
+	 *
+	 * @param d Dual number.
+	 * @return Absolute value.
+	 */
+	public static double magnitude(Dual d) {
+		return Math.abs(d.value);
+	}
+
+	@Override
+	public Dual zero() {
+		return new Dual(dimension);
+	}
+
+	@Override
+	public Dual one() {
+		return constant(1);
+	}
+
+	private Dual target(Dual t1, Dual t2, boolean write1, boolean write2) {
+		return write1 ? t1 : (write2 ? t2 : zero());
+	}
+
+	@Override
+	public Dual add(Dual t1, Dual t2, boolean write1, boolean write2) {
+		Dual res = add(t1, t2, target(t1, t2, write1, write2));
+		return (write1 && write2) ? assign(t2, res) : res;
+	}
+
+	@Override
+	public Dual add(Dual t1, Dual t2, Dual dest) {
+		for (int i = 0; i < dimension; i++) {
+			dest.derivatives[i] = t1.derivatives[i] + t2.derivatives[i];
+		}
+		dest.value = t1.value + t2.value;
+		return dest;
+	}
+
+	@Override
+	public Dual sub(Dual t1, Dual t2, boolean write1, boolean write2) {
+		Dual res = sub(t1, t2, target(t1, t2, write1, write2));
+		return (write1 && write2) ? assign(t2, res) : res;
+	}
+
+	@Override
+	public Dual sub(Dual t1, Dual t2, Dual dest) {
+		for (int i = 0; i < dimension; i++) {
+			dest.derivatives[i] = t1.derivatives[i] - t2.derivatives[i];
+		}
+		dest.value = t1.value - t2.value;
+		return dest;
+	}
+
+	@Override
+	public Dual neg(Dual t, boolean write) {
+		return neg(t, write ? t : zero());
+	}
+
+	@Override
+	public Dual neg(Dual t, Dual dest) {
+		return scale(t, -1, dest);
+	}
+
+	@Override
+	public Dual scale(Dual t, double scalar, boolean write) {
+		return scale(t, scalar, write ? t : zero());
+	}
+
+	@Override
+	public Dual scale(Dual t, double scalar, Dual dest) {
+		for (int i = 0; i < dimension; i++) {
+			dest.derivatives[i] = t.derivatives[i] * scalar;
+		}
+		dest.value = t.value * scalar;
+		return dest;
+	}
+
+	@Override
+	public Dual axpy(Dual y, double a, Dual x) {
+		for (int i = 0; i < dimension; i++) {
+			y.derivatives[i] += a * x.derivatives[i];
+		}
+		y.value += a * x.value;
+		return y;
+	}
+
+	@Override
+	public Dual assign(Dual dest, Dual src) {
+		if (dest != src) {
+			System.arraycopy(src.derivatives, 0, dest.derivatives, 0, dimension);
+			dest.value = src.value;
+		}
+		return dest;
+	}
+
+	@Override
+	public Dual mul(Dual t1, Dual t2, boolean write1, boolean write2) {
+		Dual res = mul(t1, t2, target(t1, t2, write1, write2));
+		return (write1 && write2) ? assign(t2, res) : res;
+	}
+
+	@Override
+	public Dual mul(Dual t1, Dual t2, Dual dest) {
+		double v1 = t1.value, v2 = t2.value;
+		for (int i = 0; i < dimension; i++) {
+			dest.derivatives[i] = (v1 * t2.derivatives[i]) + (v2 * t1.derivatives[i]);
+		}
+		dest.value = v1 * v2;
+		return dest;
+	}
+
+	@Override
+	public Dual inv(Dual t, boolean write) {
+		double v = 1 / t.value;
+		return chain(t, v, -v * v, write ? t : zero());
+	}
+
+	@Override
+	public Dual div(Dual t1, Dual t2, boolean write1, boolean write2) {
+		Dual res = target(t1, t2, write1, write2);
+		double v2 = t2.value, q = t1.value / v2;
+		for (int i = 0; i < dimension; i++) {
+			res.derivatives[i] = (t1.derivatives[i] - (q * t2.derivatives[i])) / v2;
+		}
+		res.value = q;
+		return (write1 && write2) ? assign(t2, res) : res;
+	}
+
+	/**
+	 * @param x    Argument.
+	 * @param dest Dual number to write result to. May be {@code x}.
+	 * @return {@code dest}
+	 */
+	public Dual sin(Dual x, Dual dest) {
+		return chain(x, Math.sin(x.value), Math.cos(x.value), dest);
+	}
+
+	/**
+	 * @param x    Argument.
+	 * @param dest Dual number to write result to. May be {@code x}.
+	 * @return {@code dest}
+	 */
+	public Dual cos(Dual x, Dual dest) {
+		return chain(x, Math.cos(x.value), -Math.sin(x.value), dest);
+	}
+
+	/**
+	 * @param x    Argument.
+	 * @param dest Dual number to write result to. May be {@code x}.
+	 * @return {@code dest}
+	 */
+	public Dual exp(Dual x, Dual dest) {
+		double e = Math.exp(x.value);
+		return chain(x, e, e, dest);
+	}
+
+	/**
+	 * @param x    Argument.
+	 * @param dest Dual number to write result to. May be {@code x}.
+	 * @return {@code dest}
+	 */
+	public Dual log(Dual x, Dual dest) {
+		return chain(x, Math.log(x.value), 1 / x.value, dest);
+	}
+
+	/**
+	 * @param x    Argument.
+	 * @param dest Dual number to write result to. May be {@code x}.
+	 * @return {@code dest}
+	 */
+	public Dual sqrt(Dual x, Dual dest) {
+		double s = Math.sqrt(x.value);
+		return chain(x, s, 0.5d / s, dest);
+	}
+
+	/**
+	 * @param x    Base.
+	 * @param p    Exponent.
+	 * @param dest Dual number to write result to. May be {@code x}.
+	 * @return {@code dest}
+	 */
+	public Dual pow(Dual x, double p, Dual dest) {
+		return chain(x, Math.pow(x.value, p), p * Math.pow(x.value, p - 1), dest);
+	}
+
+	/**
+	 * Writes {@code f(x)} to a destination, given {@code f} and {@code f'} at
+	 * value of {@code x}.
+	 */
+	private Dual chain(Dual x, double f, double df, Dual dest) {
+		for (int i = 0; i < dimension; i++) {
+			dest.derivatives[i] = df * x.derivatives[i];
+		}
+		dest.value = f;
+		return dest;
+	}
+
+	/**
+	 * Sets dual number to a constant.
+	 *
+	 * @param dest  Dual number to modify.
+	 * @param value Value.
+	 * @return {@code dest}
+	 */
+	public Dual set(Dual dest, double value) {
+		Arrays.fill(dest.derivatives, 0);
+		dest.value = value;
+		return dest;
+	}
+}
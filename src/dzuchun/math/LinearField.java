@@ -75,6 +75,127 @@ public abstract class LinearField<T> {
 		return sub(t1, t2, false, false);
 	}
 
+	/**
+	 * Writes sum of two instances to a destination. Default implementation adapts
+	 * write flags version, so it's recommended to be overridden.
+	 *
+	 * @param t1   1st instance.
+	 * @param t2   2nd instance.
+	 * @param dest Instance to write result to. May be one of arguments.
+	 * @return Result of the operation, {@code dest} if it's mutable.
+	 */
+	public T add(T t1, T t2, T dest) {
+		if (dest == t1) {
+			return add(t1, t2, true, false);
+		}
+		if (dest == t2) {
+			return add(t1, t2, false, true);
+		}
+		return assign(dest, add(t1, t2, false, false));
+	}
+
+	/**
+	 * Writes difference of two instances to a destination. Default implementation
+	 * adapts write flags version, so it's recommended to be overridden.
+	 *
+	 * @param t1   1st instance.
+	 * @param t2   2nd instance.
+	 * @param dest Instance to write result to. May be one of arguments.
+	 * @return Result of the operation, {@code dest} if it's mutable.
+	 */
+	public T sub(T t1, T t2, T dest) {
+		if (dest == t1) {
+			return sub(t1, t2, true, false);
+		}
+		if (dest == t2) {
+			return sub(t1, t2, false, true);
+		}
+		return assign(dest, sub(t1, t2, false, false));
+	}
+
+	/**
+	 * Writes the negative of an instance to a destination. Default implementation
+	 * adapts write flag version, so it's recommended to be overridden.
+	 *
+	 * @param t    Instance.
+	 * @param dest Instance to write result to. May be {@code t}.
+	 * @return Result of the operation, {@code dest} if it's mutable.
+	 */
+	public T neg(T t, T dest) {
+		if (dest == t) {
+			return neg(t, true);
+		}
+		return assign(dest, neg(t, false));
+	}
+
+	/**
+	 * Writes scaled version of an instance to a destination. Default
+	 * implementation adapts write flag version, so it's recommended to be
+	 * overridden.
+	 *
+	 * @param t      Instance to scale.
+	 * @param scalar A ratio to scale by.
+	 * @param dest   Instance to write result to. May be {@code t}.
+	 * @return Result of the operation, {@code dest} if it's mutable.
+	 */
+	public T scale(T t, double scalar, T dest) {
+		if (dest == t) {
+			return scale(t, scalar, true);
+		}
+		return assign(dest, scale(t, scalar, false));
+	}
+
+	/**
+	 * Writes value of one instance to another one. Default implementation adds
+	 * {@code src} to zeroed {@code dest}, so {@code dest} must not hold infinite
+	 * or NaN values. It's recommended to be overridden.
+	 *
+	 * @param dest Instance to write to.
+	 * @param src  Instance to read from.
+	 * @return Result of the operation, {@code dest} if it's mutable.
+	 */
+	public T assign(T dest, T src) {
+		return add(scale(dest, 0, true), src, true, false);
+	}
+
+	/**
+	 * Adds scaled instance to another one: {@code y += a * x}. It's recommended to
+	 * be overridden with a single pass implementation.
+	 *
+	 * @param y Instance to add to.
+	 * @param a A ratio to scale {@code x} by.
+	 * @param x Instance to scale and add.
+	 * @return Result of the operation, {@code y} if it's mutable.
+	 */
+	public T axpy(T y, double a, T x) {
+		return add(y, scale(x, a, false), true, false);
+	}
+
+	/**
+	 * Calculates linear combination of instances:
+	 * {@code dest = coeffs[0] * tensors[0] + coeffs[1] * tensors[1] + ...}.
+	 * {@code dest} may be one of the combined instances. It's recommended to be
+	 * overridden with a single pass implementation: default one accumulates a new
+	 * instance and then {@link #assign}s it to {@code dest}.
+	 *
+	 * @param dest    Instance to write result to.
+	 * @param coeffs  Ratios.
+	 * @param tensors Instances to combine, same number as ratios.
+	 * @throws IllegalArgumentException If numbers of ratios and instances differ,
+	 *                                  or there are none.
+	 * @return Result of the operation, {@code dest} if it's mutable.
+	 */
+	public T linearCombination(T dest, double[] coeffs, T[] tensors) throws IllegalArgumentException {
+		if ((coeffs.length != tensors.length) || (coeffs.length == 0)) {
+			throw new IllegalArgumentException("Numbers of coefficients and instances differ");
+		}
+		T res = scale(tensors[0], coeffs[0], false);
+		for (int i = 1; i < coeffs.length; i++) {
+			res = axpy(res, coeffs[i], tensors[i]);
+		}
+		return assign(dest, res);
+	}
+
 	/**
 	 * Must return product of two instances.
 	 *
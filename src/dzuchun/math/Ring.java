@@ -25,6 +25,25 @@ public abstract class Ring<T> extends LinearField<T> {
 		return mul(t1, t2, false, false);
 	}
 
+	/**
+	 * Writes product of two instances to a destination. Default implementation
+	 * adapts write flags version, so it's recommended to be overridden.
+	 *
+	 * @param t1   1st instance.
+	 * @param t2   2nd instance.
+	 * @param dest Instance to write result to. May be one of arguments.
+	 * @return Result of the operation, {@code dest} if it's mutable.
+	 */
+	public T mul(T t1, T t2, T dest) {
+		if (dest == t1) {
+			return mul(t1, t2, true, false);
+		}
+		if (dest == t2) {
+			return mul(t1, t2, false, true);
+		}
+		return assign(dest, mul(t1, t2, false, false));
+	}
+
 	/**
 	 * @return A one element of the field. One has properties: mul(one, a) and
 	 *         mul(a, one) return a.
@@ -0,0 +1,586 @@
+package dzuchun.math.solve;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dzuchun.math.tensor.DoubleLU;
+import dzuchun.math.tensor.DoubleTensor;
+import dzuchun.math.tensor.DoubleTensorField;
+
+/**
+ * Implicit variable-order (1 to 5), variable-step backward differentiation
+ * formula integrator for stiff equations. Follows quasi-constant step size
+ * implementation of Shampine and Reichelt (as in SciPy's {@code BDF}): history
+ * is kept as backward differences, that are rescaled whenever step size
+ * changes. Each step solves a nonlinear system with a simplified Newton
+ * iteration, reusing Jacobian and LU decomposition for as long as iteration
+ * converges, so usually a step costs just a few derivative evaluations.
+ * <p>
+ * A finite-difference Jacobian is used, if no analytic one is provided.
+ *
+ * @author dzu
+ *
+ * @param <T> Type of a state tensor.
+ */
+public class BDF<T extends DoubleTensor> {
+	private static final int MAX_ORDER = 5, NEWTON_MAXITER = 4;
+	private static final double MIN_FACTOR = 0.2d, MAX_FACTOR = 10.0d;
+	// gamma[k] = sum(1/j, j = 1..k), alpha = gamma, errorConst[k] = 1/(k + 1)
+	private static final double[] GAMMA = new double[MAX_ORDER + 1], ERROR_CONST = new double[MAX_ORDER + 2];
+	static {
+		for (int k = 1; k <= MAX_ORDER; k++) {
+			GAMMA[k] = GAMMA[k - 1] + (1.0d / k);
+		}
+		for (int k = 0; k < ERROR_CONST.length; k++) {
+			ERROR_CONST[k] = 1.0d / (k + 1);
+		}
+	}
+
+	private final DoubleTensorField<T> tF;
+	private final Derivative<T> derivative;
+	private final Jacobian<T> jacobian;
+	private final double atol, rtol, newtonTol;
+	private final DoubleTensor jac;
+	private final DoubleLU lu;
+	// Backward differences, scaled by step: diffs[k] = h^k * D^k y
+	private final T[] diffs, diffsTmp;
+	private final T yPredict, psi, d, dy, yNew, f, err;
+	// Step change matrices
+	private final double[][] r = new double[MAX_ORDER + 1][MAX_ORDER + 1],
+			u = new double[MAX_ORDER + 1][MAX_ORDER + 1];
+
+	private double t, h;
+	private double tOld;
+	// Shift of the current LU decomposition
+	private double luShift;
+	private int order, equalSteps, iterations;
+	private boolean luValid, jacobianCurrent;
+	private long evaluations, jacobians, decompositions, accepted, rejected;
+
+	/**
+	 * Creates a new integrator.
+	 *
+	 * @param example      Tensor of the same order and size, as states are.
+	 * @param derivativeIn Function, that writes derivative of a tensor at time
+	 *                     {@code t} point {@code y} to a destination.
+	 * @param jacobianIn   Jacobian of a derivative. If {@code null}, it is
+	 *                     approximated with finite differences.
+	 * @param tFIn         A field containing operations on a used tensors.
+	 * @param atolIn       Absolute tolerance.
+	 * @param rtolIn       Relative tolerance.
+	 */
+	@SuppressWarnings("unchecked")
+	public BDF(T example, Derivative<T> derivativeIn, Jacobian<T> jacobianIn, DoubleTensorField<T> tFIn,
+			double atolIn, double rtolIn) {
+		this.tF = tFIn;
+		this.derivative = derivativeIn;
+		this.jacobian = (jacobianIn == null) ? new FiniteDifferenceJacobian<T>(example, this::evaluate, tF)
+				: jacobianIn;
+		this.atol = atolIn;
+		this.rtol = rtolIn;
+		newtonTol = Math.max((10 * Math.ulp(1.0d)) / rtol, Math.min(0.03d, Math.sqrt(rtol)));
+		int n = example.length();
+		jac = new DoubleTensor(2, n);
+		lu = new DoubleLU(n);
+		diffs = (T[]) new DoubleTensor[MAX_ORDER + 3];
+		diffsTmp = (T[]) new DoubleTensor[MAX_ORDER + 1];
+		for (int i = 0; i < diffs.length; i++) {
+			diffs[i] = tF.zero(example);
+		}
+		for (int i = 0; i < diffsTmp.length; i++) {
+			diffsTmp[i] = tF.zero(example);
+		}
+		yPredict = tF.zero(example);
+		psi = tF.zero(example);
+		d = tF.zero(example);
+		dy = tF.zero(example);
+		yNew = tF.zero(example);
+		f = tF.zero(example);
+		err = tF.zero(example);
+	}
+
+	/**
+	 * Sets initial conditions.
+	 *
+	 * @param tIn Initial time.
+	 * @param yIn Initial state. Is copied.
+	 * @param h0  Initial step. Non-positive value means it should be guessed.
+	 */
+	public void init(double tIn, T yIn, double h0) {
+		t = tOld = tIn;
+		tF.assign(diffs[0], yIn);
+		evaluate(t, diffs[0], f);
+		h = (h0 > 0) ? h0
+				: DifferentialEquation.initialStep(t, diffs[0], f, 1, atol, rtol, this::evaluate, tF, yNew, dy);
+		tF.scale(f, h, diffs[1]);
+		order = 1;
+		equalSteps = 0;
+		jacobian.apply(t, diffs[0], f, jac);
+		jacobians++;
+		luValid = false;
+		jacobianCurrent = false;
+	}
+
+	/**
+	 * Attempts a single step, not going beyond {@code te}. Order and size of the
+	 * next step are chosen after a step is accepted.
+	 *
+	 * @param te Time to stop at.
+	 * @throws IllegalStateException If step size became too small.
+	 * @return If step was accepted and state has advanced.
+	 */
+	public boolean step(double te) throws IllegalStateException {
+		if (Math.abs(h) <= (10 * Math.ulp(t))) {
+			throw new IllegalStateException(String.format("Step size underflow at t=%s", t));
+		}
+		tOld = t;
+		double tNew = t + h;
+		if (tNew >= te) {
+			tNew = te;
+			changeStep((te - t) / h);
+		}
+		// Predictor and the constant part of the corrector
+		tF.assign(yPredict, diffs[0]);
+		for (int i = 1; i <= order; i++) {
+			tF.axpy(yPredict, 1, diffs[i]);
+		}
+		tF.scale(diffs[1], GAMMA[1] / GAMMA[order], psi);
+		for (int i = 2; i <= order; i++) {
+			tF.axpy(psi, GAMMA[i] / GAMMA[order], diffs[i]);
+		}
+		double c = h / GAMMA[order];
+		boolean converged = false;
+		while (!converged) {
+			if (!luValid) {
+				try {
+					lu.factorShifted(jac, c);
+					decompositions++;
+					luShift = c;
+					luValid = true;
+				} catch (ArithmeticException e) {
+					break;
+				}
+			}
+			converged = solveSystem(tNew, c);
+			if (!converged) {
+				if (jacobianCurrent) {
+					break;
+				}
+				jacobian.apply(tNew, yPredict, jac);
+				jacobians++;
+				jacobianCurrent = true;
+				luValid = false;
+			}
+		}
+		if (!converged) {
+			rejected++;
+			changeStep(0.5d);
+			return false;
+		}
+		double safety = (0.9d * ((2 * NEWTON_MAXITER) + 1)) / ((2 * NEWTON_MAXITER) + iterations);
+		tF.scale(d, ERROR_CONST[order], err);
+		double errNorm = tF.rmsNorm(err, yNew, yNew, atol, rtol);
+		if (Double.isNaN(errNorm)) {
+			errNorm = Double.POSITIVE_INFINITY;
+		}
+		if (errNorm > 1) {
+			rejected++;
+			// Newton iteration converged, so decomposition is worth keeping
+			changeStep(Math.max(MIN_FACTOR, safety * Math.pow(errNorm, -1.0d / (order + 1))), false);
+			return false;
+		}
+		accepted++;
+		equalSteps++;
+		t = tNew;
+		jacobianCurrent = false;
+		// Updating differences: D^(k+1) y_n = D^k y_n - D^k y_(n-1)
+		tF.sub(d, diffs[order + 1], diffs[order + 2]);
+		tF.assign(diffs[order + 1], d);
+		for (int i = order; i >= 0; i--) {
+			tF.axpy(diffs[i], 1, diffs[i + 1]);
+		}
+		if (equalSteps < (order + 1)) {
+			return true;
+		}
+		// Choosing order, that allows the largest step
+		double factorM = 0, factorP = 0;
+		if (order > 1) {
+			tF.scale(diffs[order], ERROR_CONST[order - 1], err);
+			factorM = Math.pow(tF.rmsNorm(err, yNew, yNew, atol, rtol), -1.0d / order);
+		}
+		if (order < MAX_ORDER) {
+			tF.scale(diffs[order + 2], ERROR_CONST[order + 1], err);
+			factorP = Math.pow(tF.rmsNorm(err, yNew, yNew, atol, rtol), -1.0d / (order + 2));
+		}
+		double factor = Math.pow(errNorm, -1.0d / (order + 1));
+		int newOrder = order;
+		if (factorM > factor) {
+			factor = factorM;
+			newOrder = order - 1;
+		}
+		if (factorP > factor) {
+			factor = factorP;
+			newOrder = order + 1;
+		}
+		order = newOrder;
+		changeStep(Math.min(MAX_FACTOR, safety * factor));
+		return true;
+	}
+
+	/**
+	 * Solves BDF system with simplified Newton iteration, starting from
+	 * {@code yPredict}. Writes solution to {@code yNew}, and it's difference
+	 * from prediction to {@code d}.
+	 *
+	 * @return If iteration converged.
+	 */
+	private boolean solveSystem(double tNew, double c) {
+		tF.assign(yNew, yPredict);
+		BDF.clear(d);
+		double dyNorm, dyNormOld = -1, rate = 0;
+		for (int k = 0; k < NEWTON_MAXITER; k++) {
+			iterations = k + 1;
+			evaluate(tNew, yNew, f);
+			if (!BDF.isFinite(f)) {
+				return false;
+			}
+			// dy = W^-1 (c f - psi - d)
+			tF.sub(tF.sub(tF.scale(f, c, dy), psi, dy), d, dy);
+			lu.solve(dy, dy);
+			dyNorm = tF.rmsNorm(dy, yPredict, yPredict, atol, rtol);
+			if (Double.isNaN(dyNorm)) {
+				return false;
+			}
+			if (dyNormOld >= 0) {
+				rate = dyNorm / dyNormOld;
+				if ((rate >= 1) || (((Math.pow(rate, NEWTON_MAXITER - k) / (1 - rate)) * dyNorm) > newtonTol)) {
+					return false;
+				}
+			}
+			tF.axpy(yNew, 1, dy);
+			tF.axpy(d, 1, dy);
+			if ((dyNorm == 0) || ((dyNormOld >= 0) && (((rate / (1 - rate)) * dyNorm) < newtonTol))) {
+				return true;
+			}
+			dyNormOld = dyNorm;
+		}
+		return false;
+	}
+
+	private static boolean isFinite(DoubleTensor t) {
+		for (int i = 0; i < t.length(); i++) {
+			if (!Double.isFinite(t.getValue(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void clear(DoubleTensor t) {
+		for (int i = 0; i < t.length(); i++) {
+			t.setValue(0, i);
+		}
+	}
+
+	private void changeStep(double factor) {
+		changeStep(factor, true);
+	}
+
+	/**
+	 * Multiplies step size by a factor, rescaling differences to a new step.
+	 *
+	 * @param resetDecomposition If LU decomposition should be recalculated.
+	 */
+	private void changeStep(double factor, boolean resetDecomposition) {
+		h *= factor;
+		equalSteps = 0;
+		if (resetDecomposition) {
+			luValid = false;
+		}
+		// D := (R(factor) U)^T D, U = R(1), over first order + 1 differences
+		BDF.computeR(order, factor, r);
+		BDF.computeR(order, 1, u);
+		double coeff;
+		for (int j = 0; j <= order; j++) {
+			BDF.clear(diffsTmp[j]);
+			for (int i = 0; i <= order; i++) {
+				coeff = 0;
+				for (int k = 0; k <= order; k++) {
+					coeff += r[i][k] * u[k][j];
+				}
+				tF.axpy(diffsTmp[j], coeff, diffs[i]);
+			}
+		}
+		T tmp;
+		for (int j = 0; j <= order; j++) {
+			tmp = diffs[j];
+			diffs[j] = diffsTmp[j];
+			diffsTmp[j] = tmp;
+		}
+	}
+
+	/**
+	 * Writes matrix, that transforms differences for a step size multiplied by
+	 * {@code factor}, to {@code dest}.
+	 */
+	private static void computeR(int order, double factor, double[][] dest) {
+		for (int j = 0; j <= order; j++) {
+			dest[0][j] = 1;
+		}
+		for (int i = 1; i <= order; i++) {
+			dest[i][0] = 0;
+			for (int j = 1; j <= order; j++) {
+				dest[i][j] = (dest[i - 1][j] * ((i - 1) - (factor * j))) / i;
+			}
+		}
+	}
+
+	/**
+	 * Solves equation from {@code tb} to {@code te}.
+	 *
+	 * @param tb Initial time.
+	 * @param te Ending time.
+	 * @param h0 Initial step. Non-positive value means it should be guessed.
+	 * @param y0 Initial state.
+	 * @return A map representing change of a tensor over time, one entry per
+	 *         accepted step.
+	 */
+	public Map<Double, T> solve(double tb, double te, double h0, T y0) {
+		Map<Double, T> res = new LinkedHashMap<Double, T>(0);
+		solve(tb, te, h0, y0, (t, y) -> res.put(t, tF.copy(y)));
+		return res;
+	}
+
+	/**
+	 * Solves equation from {@code tb} to {@code te}, pushing states to a consumer
+	 * as soon as they are calculated.
+	 *
+	 * @param tb       Initial time.
+	 * @param te       Ending time.
+	 * @param h0       Initial step. Non-positive value means it should be guessed.
+	 * @param y0       Initial state.
+	 * @param consumer Receives state after every accepted step, starting with
+	 *                 {@code y0} at {@code tb}.
+	 */
+	public void solve(double tb, double te, double h0, T y0, TrajectoryConsumer<? super T> consumer) {
+		init(tb, y0, h0);
+		consumer.accept(t, diffs[0]);
+		advance(te, consumer, null);
+	}
+
+	/**
+	 * Continues integration from the current state (set by {@link #init} or
+	 * {@link #restore}) up to {@code te}.
+	 *
+	 * @param te          Ending time.
+	 * @param consumer    Receives state after every accepted step.
+	 * @param checkpoints Writer to pass checkpoints to, when they are due. May be
+	 *                    null.
+	 */
+	public void advance(double te, TrajectoryConsumer<? super T> consumer, CheckpointWriter checkpoints) {
+		while (t < te) {
+			if (step(te)) {
+				consumer.accept(t, diffs[0]);
+				if ((checkpoints != null) && checkpoints.isDue()) {
+					checkpoints.submit(checkpoint());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Solves equation, reporting states at specified time points only. Internal
+	 * steps are chosen by accuracy, and states between them are obtained from
+	 * the interpolating polynomial of the method.
+	 *
+	 * @param tb       Initial time.
+	 * @param times    Output time points, not decreasing and not less than
+	 *                 {@code tb}.
+	 * @param h0       Initial step. Non-positive value means it should be guessed.
+	 * @param y0       Initial state.
+	 * @param consumer Receives state at every output time point.
+	 * @throws IllegalArgumentException If output times are not sorted or precede
+	 *                                  {@code tb}.
+	 */
+	public void solve(double tb, double[] times, double h0, T y0, TrajectoryConsumer<? super T> consumer)
+			throws IllegalArgumentException {
+		DifferentialEquation.checkTimes(tb, times);
+		if (times.length == 0) {
+			return;
+		}
+		init(tb, y0, h0);
+		int i = 0;
+		while ((i < times.length) && (times[i] == tb)) {
+			consumer.accept(times[i++], diffs[0]);
+		}
+		advance(times, consumer, null);
+	}
+
+	/**
+	 * Continues integration from the current state (set by {@link #init} or
+	 * {@link #restore}) up to the last output time point, reporting states at
+	 * time points after the current time.
+	 *
+	 * @param times       Output time points, not decreasing. Points not after the
+	 *                    current time are skipped.
+	 * @param consumer    Receives state at every output time point.
+	 * @param checkpoints Writer to pass checkpoints to, when they are due. May be
+	 *                    null.
+	 */
+	public void advance(double[] times, TrajectoryConsumer<? super T> consumer, CheckpointWriter checkpoints) {
+		if (times.length == 0) {
+			return;
+		}
+		T out = tF.zero(diffs[0]);
+		int i = 0;
+		while ((i < times.length) && (times[i] <= t)) {
+			i++;
+		}
+		final double te = times[times.length - 1];
+		while (i < times.length) {
+			if (step(te)) {
+				while ((i < times.length) && (times[i] <= t)) {
+					consumer.accept(times[i], (times[i] == t) ? diffs[0] : interpolate(times[i], out));
+					i++;
+				}
+				if ((checkpoints != null) && checkpoints.isDue()) {
+					checkpoints.submit(checkpoint());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves time, state, step size and controller state: order, number of steps
+	 * made with the current step size, backward differences and Jacobian, as it
+	 * is reused over many steps. Can be restored by an integrator of the same
+	 * equation and tolerances.
+	 *
+	 * @return A checkpoint.
+	 */
+	public Checkpoint checkpoint() {
+		double[] history = Checkpoint.values(diffs), matrix = Checkpoint.values(jac);
+		int n = diffs[0].length();
+		double[] controller = new double[(3 + history.length + matrix.length) - n];
+		controller[0] = order;
+		controller[1] = equalSteps;
+		// Decomposition may be older than the last step size change
+		controller[2] = luValid ? luShift : Double.NaN;
+		System.arraycopy(history, n, controller, 3, history.length - n);
+		System.arraycopy(matrix, 0, controller, (3 + history.length) - n, matrix.length);
+		return new Checkpoint(Checkpoint.Solver.BDF, 0, t, h, accepted, Checkpoint.values(diffs[0]), controller);
+	}
+
+	/**
+	 * Continues from a checkpoint, instead of {@link #init}. Further steps are
+	 * exactly the same, as they were in a run checkpoint was made by.
+	 *
+	 * @param checkpoint Checkpoint made by {@link #checkpoint()}.
+	 * @throws IllegalArgumentException If checkpoint was made by another solver,
+	 *                                  or for another state size.
+	 */
+	public void restore(Checkpoint checkpoint) throws IllegalArgumentException {
+		int n = diffs[0].length();
+		checkpoint.restore(Checkpoint.Solver.BDF, 0, 3 + ((diffs.length - 1) * n) + jac.length(), diffs[0]);
+		t = tOld = checkpoint.t;
+		h = checkpoint.h;
+		accepted = checkpoint.steps;
+		order = (int) checkpoint.getController(0);
+		equalSteps = (int) checkpoint.getController(1);
+		int c = 3;
+		for (int k = 1; k < diffs.length; k++) {
+			for (int i = 0; i < n; i++) {
+				diffs[k].setValue(checkpoint.getController(c++), i);
+			}
+		}
+		for (int i = 0; i < jac.length(); i++) {
+			jac.setValue(checkpoint.getController(c++), i);
+		}
+		jacobianCurrent = false;
+		luValid = false;
+		double shift = checkpoint.getController(2);
+		if (!Double.isNaN(shift)) {
+			lu.factorShifted(jac, shift);
+			decompositions++;
+			luShift = shift;
+			luValid = true;
+		}
+	}
+
+	/**
+	 * Evaluates polynomial, interpolating last {@code order + 1} states. Is
+	 * accurate to the order of the method. Available until the next step
+	 * attempt.
+	 *
+	 * @param tOut Time point within the last accepted step.
+	 * @param dest Tensor to write state to.
+	 * @throws IllegalArgumentException If time point is outside the last step.
+	 * @return {@code dest}
+	 */
+	public T interpolate(double tOut, T dest) throws IllegalArgumentException {
+		if ((tOut < tOld) || (tOut > t)) {
+			throw new IllegalArgumentException(
+					String.format("Time %s is outside of last step [%s, %s]", tOut, tOld, t));
+		}
+		tF.assign(dest, diffs[0]);
+		double p = 1;
+		for (int i = 0; i < order; i++) {
+			p *= (tOut - (t - (h * i))) / (h * (i + 1));
+			tF.axpy(dest, p, diffs[i + 1]);
+		}
+		return dest;
+	}
+
+	/**
+	 * @return Current time.
+	 */
+	public double getTime() {
+		return t;
+	}
+
+	/**
+	 * @return Current state. Is overwritten by further steps.
+	 */
+	public T getState() {
+		return diffs[0];
+	}
+
+	/**
+	 * @return Step size to be attempted next.
+	 */
+	public double getStep() {
+		return h;
+	}
+
+	/**
+	 * @return Order to be used for the next step.
+	 */
+	public int getOrder() {
+		return order;
+	}
+
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	public long getJacobianEvaluations() {
+		return jacobians;
+	}
+
+	public long getDecompositions() {
+		return decompositions;
+	}
+
+	public long getAcceptedSteps() {
+		return accepted;
+	}
+
+	public long getRejectedSteps() {
+		return rejected;
+	}
+
+	private void evaluate(double tIn, T yIn, T dest) {
+		evaluations++;
+		derivative.apply(tIn, yIn, dest);
+	}
+}
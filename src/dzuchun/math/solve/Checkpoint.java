@@ -0,0 +1,303 @@
+package dzuchun.math.solve;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import dzuchun.math.tensor.DoubleTensor;
+import dzuchun.math.tensor.Tensor;
+
+/**
+ * Everything a solver needs to continue integration: time, state, step size
+ * and step-size controller state. Derivatives a solver keeps between steps
+ * are evaluated again on restore (except for a Jacobian of {@link BDF}, that is
+ * saved, as it is reused over many steps), so continuing from a checkpoint
+ * gives exactly the same states as an uninterrupted run. Only states of
+ * {@link DoubleTensor}s can be saved.
+ * <p>
+ * Checkpoints are made by the fixed-step Runge-Kutta loop of
+ * {@link DifferentialEquation}, and by {@link DormandPrince},
+ * {@link Rosenbrock23}, {@link BDF}, {@link SymplecticIntegrator} and
+ * {@link EnsembleSolver}. Kind of a solver and it's method (like a symplectic
+ * scheme) are recorded, and a checkpoint is rejected by solvers of any other
+ * kind or method. Equation and tolerances are not recorded, so they are up to
+ * a caller to keep the same.
+ * <p>
+ * File layout (little-endian):
+ * <ul>
+ * <li>header, {@value #HEADER_SIZE} bytes: magic, version, kind of solver,
+ * method, dimension, number of controller values (ints), time, step
+ * (doubles), number of steps made (long);</li>
+ * <li>state components, then controller values (doubles).</li>
+ * </ul>
+ *
+ * @author dzu
+ *
+ */
+public class Checkpoint {
+	static final int MAGIC = 0x43454446; // "FDEC"
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 48;
+
+	/**
+	 * Kinds of solvers, that make checkpoints.
+	 */
+	public static enum Solver {
+		RUNGE_KUTTA, DORMAND_PRINCE, ROSENBROCK23, BDF, SYMPLECTIC, ENSEMBLE;
+	}
+
+	public final Solver solver;
+	/**
+	 * Method within a kind of solver, like an index of a symplectic scheme. 0,
+	 * if solver has a single method.
+	 */
+	public final int variant;
+	public final double t;
+	public final double h;
+	public final long steps;
+	private final double[] state;
+	private final double[] controller;
+
+	/**
+	 * @param solverIn     Kind of solver checkpoint is made by.
+	 * @param variantIn    Method within a kind of solver.
+	 * @param tIn          Time.
+	 * @param hIn          Step size to be attempted next.
+	 * @param stepsIn      Number of steps made so far.
+	 * @param stateIn      State components. Is not copied.
+	 * @param controllerIn Solver-specific controller values. Is not copied.
+	 */
+	Checkpoint(Solver solverIn, int variantIn, double tIn, double hIn, long stepsIn, double[] stateIn,
+			double... controllerIn) {
+		this.solver = solverIn;
+		this.variant = variantIn;
+		this.t = tIn;
+		this.h = hIn;
+		this.steps = stepsIn;
+		this.state = stateIn;
+		this.controller = controllerIn;
+	}
+
+	/**
+	 * @return Number of components in a state.
+	 */
+	public int dimension() {
+		return state.length;
+	}
+
+	public double getController(int i) {
+		return controller[i];
+	}
+
+	/**
+	 * Copies saved state to a tensor.
+	 *
+	 * @param <T>  Type of a tensor.
+	 * @param dest Tensor to write state to.
+	 * @throws IllegalArgumentException If tensor is of wrong size.
+	 * @return {@code dest}
+	 */
+	public <T extends DoubleTensor> T getState(T dest) throws IllegalArgumentException {
+		if (dest.length() != state.length) {
+			throw new IllegalArgumentException("Tensor does not match checkpoint dimension");
+		}
+		for (int i = 0; i < state.length; i++) {
+			dest.setValue(state[i], i);
+		}
+		return dest;
+	}
+
+	/**
+	 * @return Copy of components of all the tensors, one after another.
+	 * @throws UnsupportedOperationException If any tensor is not a
+	 *                                       {@link DoubleTensor}.
+	 */
+	static double[] values(Tensor<?>... tensors) throws UnsupportedOperationException {
+		double[] res = new double[Checkpoint.checkSupported(tensors)];
+		int offset = 0;
+		DoubleTensor d;
+		for (Tensor<?> y : tensors) {
+			d = (DoubleTensor) y;
+			for (int i = 0; i < d.length(); i++) {
+				res[offset++] = d.getValue(i);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Checks that tensors can be checkpointed. Solvers call it before they start,
+	 * so a run with unsupported tensors fails right away, not once the first
+	 * checkpoint is due.
+	 *
+	 * @return Total number of components.
+	 * @throws UnsupportedOperationException If any tensor is not a
+	 *                                       {@link DoubleTensor}.
+	 */
+	static int checkSupported(Tensor<?>... tensors) throws UnsupportedOperationException {
+		int length = 0;
+		for (Tensor<?> y : tensors) {
+			if (!(y instanceof DoubleTensor)) {
+				throw new UnsupportedOperationException("Only double tensors can be checkpointed");
+			}
+			length += ((DoubleTensor) y).length();
+		}
+		return length;
+	}
+
+	/**
+	 * @return Copy of columns, one after another.
+	 */
+	static double[] values(double[][] columns) {
+		int length = 0;
+		for (double[] column : columns) {
+			length += column.length;
+		}
+		double[] res = new double[length];
+		int offset = 0;
+		for (double[] column : columns) {
+			System.arraycopy(column, 0, res, offset, column.length);
+			offset += column.length;
+		}
+		return res;
+	}
+
+	/**
+	 * Copies saved state to a solver's tensors, checking that checkpoint was
+	 * made by a solver of the same kind and method.
+	 */
+	void restore(Solver solverIn, int variantIn, int controllerSize, Tensor<?>... dests)
+			throws IllegalArgumentException, UnsupportedOperationException {
+		check(solverIn, variantIn, controllerSize);
+		if (Checkpoint.checkSupported(dests) != state.length) {
+			throw new IllegalArgumentException("Tensor does not match checkpoint dimension");
+		}
+		int offset = 0;
+		DoubleTensor d;
+		for (Tensor<?> dest : dests) {
+			d = (DoubleTensor) dest;
+			for (int i = 0; i < d.length(); i++) {
+				d.setValue(state[offset++], i);
+			}
+		}
+	}
+
+	/**
+	 * Copies saved state to a solver's columns, checking that checkpoint was
+	 * made by a solver of the same kind.
+	 */
+	void restore(Solver solverIn, int controllerSize, double[][] columns) throws IllegalArgumentException {
+		check(solverIn, 0, controllerSize);
+		int length = 0;
+		for (double[] column : columns) {
+			length += column.length;
+		}
+		if (length != state.length) {
+			throw new IllegalArgumentException("Ensemble does not match checkpoint dimension");
+		}
+		int offset = 0;
+		for (double[] column : columns) {
+			System.arraycopy(state, offset, column, 0, column.length);
+			offset += column.length;
+		}
+	}
+
+	/**
+	 * Checks that a fixed-step solver continues on the same time grid. Starting
+	 * time is the only controller value of such solvers.
+	 */
+	void checkGrid(Solver solverIn, int variantIn, double tb, double step) throws IllegalArgumentException {
+		check(solverIn, variantIn, 1);
+		if ((h != step) || (controller[0] != tb)) {
+			throw new IllegalArgumentException(String.format(
+					"Checkpoint was made with initial time %s and step %s", controller[0], h));
+		}
+	}
+
+	private void check(Solver solverIn, int variantIn, int controllerSize) throws IllegalArgumentException {
+		if (solver != solverIn) {
+			throw new IllegalArgumentException(
+					String.format("Checkpoint was made by a different solver (%s)", solver));
+		}
+		if (variant != variantIn) {
+			throw new IllegalArgumentException("Checkpoint was made with a different method");
+		}
+		if (controller.length != controllerSize) {
+			throw new IllegalArgumentException("Checkpoint does not match solver's dimension");
+		}
+	}
+
+	/**
+	 * Writes checkpoint to a temporary file, forces it to disk and renames over
+	 * {@code path}, so a file at {@code path} is always a complete checkpoint.
+	 *
+	 * @param path File to write to.
+	 * @throws IOException If file could not be written.
+	 */
+	public void write(Path path) throws IOException {
+		ByteBuffer buffer = ByteBuffer
+				.allocate(HEADER_SIZE + ((state.length + controller.length) * Double.BYTES))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(solver.ordinal()).putInt(variant);
+		buffer.putInt(state.length).putInt(controller.length);
+		buffer.putDouble(t).putDouble(h).putLong(steps);
+		for (double v : state) {
+			buffer.putDouble(v);
+		}
+		for (double v : controller) {
+			buffer.putDouble(v);
+		}
+		buffer.flip();
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		try {
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads a checkpoint written by {@link #write(Path)}.
+	 *
+	 * @param path File to read.
+	 * @throws IOException If file could not be read, or is not a checkpoint.
+	 * @return A checkpoint.
+	 */
+	public static Checkpoint read(Path path) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+		if ((buffer.remaining() < HEADER_SIZE) || (buffer.getInt() != MAGIC)) {
+			throw new IOException(String.format("%s is not a checkpoint file", path));
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException(String.format("Unsupported checkpoint version %d", version));
+		}
+		int solver = buffer.getInt(), variant = buffer.getInt();
+		if ((solver < 0) || (solver >= Solver.values().length)) {
+			throw new IOException(String.format("Checkpoint %s was made by an unknown solver", path));
+		}
+		int dimension = buffer.getInt(), controllerSize = buffer.getInt();
+		if ((dimension < 0) || (controllerSize < 0)
+				|| (buffer.capacity() != (HEADER_SIZE + (((long) dimension + controllerSize) * Double.BYTES)))) {
+			throw new IOException(String.format("Checkpoint %s is truncated or corrupted", path));
+		}
+		double t = buffer.getDouble(), h = buffer.getDouble();
+		long steps = buffer.getLong();
+		double[] state = new double[dimension], controller = new double[controllerSize];
+		buffer.asDoubleBuffer().get(state).get(controller);
+		return new Checkpoint(Solver.values()[solver], variant, t, h, steps, state, controller);
+	}
+}
@@ -0,0 +1,124 @@
+package dzuchun.math.solve;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes solver checkpoints periodically, on a thread of it's own. Solvers ask
+ * {@link #isDue()} after accepted steps, which is just a clock read, and
+ * build a checkpoint only if it returns {@code true}. A checkpoint is skipped
+ * if the previous one is still being written, so solver never waits for the
+ * disk.
+ * <p>
+ * Failures do not interrupt solving, they are reported by {@link #close()}.
+ *
+ * @author dzu
+ *
+ */
+public class CheckpointWriter implements Closeable {
+	private final Path path;
+	private final long interval;
+	private final ExecutorService thread;
+	private volatile boolean busy;
+	private volatile Throwable failure;
+	private volatile long written;
+	private long last;
+	private boolean closed;
+
+	/**
+	 * @param pathIn         File to keep the latest checkpoint in.
+	 * @param intervalMillis Minimal time between checkpoints, in milliseconds.
+	 */
+	public CheckpointWriter(Path pathIn, long intervalMillis) {
+		this.path = pathIn;
+		this.interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		thread = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "checkpoint-writer");
+			t.setDaemon(true);
+			return t;
+		});
+		last = System.nanoTime();
+	}
+
+	/**
+	 * @return If interval has passed since the last checkpoint, and it is
+	 *         written already.
+	 */
+	public boolean isDue() {
+		return !busy && ((System.nanoTime() - last) >= interval);
+	}
+
+	/**
+	 * Writes a checkpoint asynchronously. Skipped, if previous checkpoint is still
+	 * being written, writer is closed, or a write has failed.
+	 *
+	 * @param checkpoint Checkpoint to write. Must not be changed afterwards.
+	 * @return If checkpoint was queued.
+	 */
+	public boolean submit(Checkpoint checkpoint) {
+		if (busy || closed || (failure != null)) {
+			return false;
+		}
+		busy = true;
+		last = System.nanoTime();
+		thread.execute(() -> {
+			try {
+				checkpoint.write(path);
+				written++;
+			} catch (IOException | RuntimeException e) {
+				failure = e;
+			} finally {
+				busy = false;
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Waits for the last checkpoint to be written and stops the thread.
+	 *
+	 * @throws IOException If any checkpoint failed, or thread was interrupted.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		thread.shutdown();
+		try {
+			while (!thread.awaitTermination(1, TimeUnit.MINUTES)) {
+				// Waiting for the write to finish
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a checkpoint to be written");
+		}
+		Throwable f = failure;
+		if (f instanceof IOException) {
+			throw (IOException) f;
+		}
+		if (f != null) {
+			throw new IOException("Checkpoint write failed", f);
+		}
+	}
+
+	/**
+	 * @return File checkpoints are written to.
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return Number of checkpoints written so far.
+	 */
+	public long getWritten() {
+		return written;
+	}
+}
@@ -0,0 +1,42 @@
+package dzuchun.math.solve;
+
+import java.util.function.BiFunction;
+
+import dzuchun.math.tensor.Tensor;
+import dzuchun.math.tensor.TensorField;
+
+/**
+ * Right-hand side of a differential equation, that writes it's result to a
+ * caller-supplied tensor instead of creating a new one.
+ *
+ * @author dzu
+ *
+ * @param <T> Type of a state tensor.
+ */
+@FunctionalInterface
+public interface Derivative<T> {
+
+	/**
+	 * Must write derivative of a state {@code y} at time {@code t} to
+	 * {@code dest}. Must not modify {@code y}.
+	 *
+	 * @param t    Time point.
+	 * @param y    Current state.
+	 * @param dest Tensor to write derivative to.
+	 */
+	void apply(double t, T y, T dest);
+
+	/**
+	 * Adapts a derivative, that returns new tensors. Result is assigned to the
+	 * destination, so it's as allocating as the derivative itself.
+	 *
+	 * @param <E>        Type of elements in tensors.
+	 * @param <T>        Type of a state tensor.
+	 * @param derivative Derivative returning a new tensor.
+	 * @param tF         A field containing operations on a used tensors.
+	 * @return Destination-passing version of a derivative.
+	 */
+	static <E, T extends Tensor<E>> Derivative<T> of(BiFunction<Double, T, T> derivative, TensorField<E, T> tF) {
+		return (t, y, dest) -> tF.assign(dest, derivative.apply(t, y));
+	}
+}
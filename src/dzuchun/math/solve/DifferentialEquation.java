@@ -3,17 +3,19 @@ package dzuchun.math.solve;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 
+import dzuchun.math.tensor.DoubleTensor;
+import dzuchun.math.tensor.DoubleTensorField;
 import dzuchun.math.tensor.Tensor;
 import dzuchun.math.tensor.TensorField;
-import dzuchun.util.Util;
 
 public class DifferentialEquation {
 	/**
 	 * Solves ordinary first-order tensor differential equation using 4th-order
-	 * adaptive Runge-Kutta method. Quite "dirty method", so {@code System.gc()}
-	 * after it might be nesessary.
+	 * adaptive Runge-Kutta method. Derivative creates new tensors here, so prefer
+	 * {@link Derivative} version, if possible.
 	 *
 	 * @param <E>          Type of elements in tensors.
 	 * @param tb           Initial time.
@@ -31,74 +33,655 @@ public class DifferentialEquation {
 	 */
 	public static <E, T extends Tensor<E>> Map<Double, T> sOFOTDERK(double tb, double te, double dt, double qt,
 			Predicate<E> badCondition, T y0, BiFunction<Double, T, T> derivative, TensorField<E, T> tF) {
+		return DifferentialEquation.sOFOTDERK(tb, te, dt, qt, badCondition, y0, Derivative.of(derivative, tF), tF);
+	}
+
+	/**
+	 * Solves ordinary first-order tensor differential equation using 4th-order
+	 * adaptive Runge-Kutta method. All intermediate tensors are allocated once,
+	 * only saved states are copied.
+	 *
+	 * @param <E>          Type of elements in tensors.
+	 * @param tb           Initial time.
+	 * @param te           Ending time.
+	 * @param dt           Default time step.
+	 * @param qt           Minimal time step.
+	 * @param badCondition Predicate to determine a case when calculations must be
+	 *                     more precise.
+	 * @param y0           Initial tensor state
+	 * @param derivative   Function, that should write a derivative of a tensor at
+	 *                     time {@code t} point {@code y} to a destination.
+	 * @param tF           A field containing operations on a used tensors.
+	 * @return A map representing change of a tensor over time.
+	 */
+	public static <E, T extends Tensor<E>> Map<Double, T> sOFOTDERK(double tb, double te, double dt, double qt,
+			Predicate<E> badCondition, T y0, Derivative<T> derivative, TensorField<E, T> tF) {
 		// TODO maybe I should use a faster map
 		Map<Double, T> res = new LinkedHashMap<Double, T>(0);
-		res.put(tb, y0);
+		DifferentialEquation.sOFOTDERK(tb, te, dt, qt, badCondition, y0, derivative, tF,
+				(t, y) -> res.put(t, tF.copy(y)));
+		return res;
+	}
+
+	/**
+	 * Solves ordinary first-order tensor differential equation using 4th-order
+	 * adaptive Runge-Kutta method, pushing states to a consumer as soon as they
+	 * are calculated. Nothing is retained, so memory used does not depend on
+	 * {@code te/dt}.
+	 *
+	 * @param <E>          Type of elements in tensors.
+	 * @param tb           Initial time.
+	 * @param te           Ending time.
+	 * @param dt           Default time step.
+	 * @param qt           Minimal time step.
+	 * @param badCondition Predicate to determine a case when calculations must be
+	 *                     more precise.
+	 * @param y0           Initial tensor state
+	 * @param derivative   Function, that should write a derivative of a tensor at
+	 *                     time {@code t} point {@code y} to a destination.
+	 * @param tF           A field containing operations on a used tensors.
+	 * @param consumer     Receives states every {@code dt}, starting with
+	 *                     {@code y0} at {@code tb}.
+	 */
+	public static <E, T extends Tensor<E>> void sOFOTDERK(double tb, double te, double dt, double qt,
+			Predicate<E> badCondition, T y0, Derivative<T> derivative, TensorField<E, T> tF,
+			TrajectoryConsumer<? super T> consumer) {
+		DifferentialEquation.sOFOTDERK(tb, te, dt, qt, y0, derivative, tF, consumer,
+				(predict, correct) -> badCondition.test(tF.squaredDistance(predict, correct)), null, null);
+	}
+
+	/**
+	 * Same as {@link #sOFOTDERK(double, double, double, double, Predicate, Tensor,
+	 * Derivative, TensorField, TrajectoryConsumer)}, but saves checkpoints
+	 * periodically, and may continue from one. Continued run produces exactly the
+	 * same states, as an uninterrupted one would.
+	 *
+	 * @param <E>          Type of elements in tensors.
+	 * @param tb           Initial time.
+	 * @param te           Ending time.
+	 * @param dt           Default time step.
+	 * @param qt           Minimal time step.
+	 * @param badCondition Predicate to determine a case when calculations must be
+	 *                     more precise.
+	 * @param y0           Initial tensor state. Must be a {@link DoubleTensor}.
+	 * @param derivative   Function, that should write a derivative of a tensor at
+	 *                     time {@code t} point {@code y} to a destination.
+	 * @param tF           A field containing operations on a used tensors.
+	 * @param consumer     Receives states every {@code dt}, starting with
+	 *                     {@code y0} at {@code tb}, or with the first state after
+	 *                     {@code resume}.
+	 * @param resume       Checkpoint to continue from, or null to start at
+	 *                     {@code tb}.
+	 * @param checkpoints  Writer to pass checkpoints to, or null.
+	 * @throws IllegalArgumentException      If checkpoint was made by another
+	 *                                       solver, for another state size, or
+	 *                                       with another {@code tb} or
+	 *                                       {@code dt}.
+	 * @throws UnsupportedOperationException If checkpoints are requested, and
+	 *                                       {@code y0} is not a
+	 *                                       {@link DoubleTensor}.
+	 */
+	public static <E, T extends Tensor<E>> void sOFOTDERK(double tb, double te, double dt, double qt,
+			Predicate<E> badCondition, T y0, Derivative<T> derivative, TensorField<E, T> tF,
+			TrajectoryConsumer<? super T> consumer, Checkpoint resume, CheckpointWriter checkpoints)
+			throws IllegalArgumentException, UnsupportedOperationException {
+		DifferentialEquation.sOFOTDERK(tb, te, dt, qt, y0, derivative, tF, consumer,
+				(predict, correct) -> badCondition.test(tF.squaredDistance(predict, correct)), resume,
+				checkpoints);
+	}
+
+	/**
+	 * Solves ordinary first-order tensor differential equation using 4th-order
+	 * adaptive Runge-Kutta method. Step is halved until weighted RMS norm of a
+	 * difference between consecutive approximations does not exceed 1, every
+	 * component of a difference being divided by
+	 * {@code atol + rtol * max(|predict|, |correct|)}.
+	 *
+	 * @param <E>        Type of elements in tensors.
+	 * @param tb         Initial time.
+	 * @param te         Ending time.
+	 * @param dt         Default time step.
+	 * @param qt         Minimal time step.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param tF         A field containing operations on a used tensors. Must
+	 *                   support {@link TensorField#diffNorm}.
+	 * @return A map representing change of a tensor over time.
+	 */
+	public static <E, T extends Tensor<E>> Map<Double, T> sOFOTDERK(double tb, double te, double dt, double qt,
+			double atol, double rtol, T y0, Derivative<T> derivative, TensorField<E, T> tF) {
+		Map<Double, T> res = new LinkedHashMap<Double, T>(0);
+		DifferentialEquation.sOFOTDERK(tb, te, dt, qt, atol, rtol, y0, derivative, tF,
+				(t, y) -> res.put(t, tF.copy(y)));
+		return res;
+	}
+
+	/**
+	 * Solves ordinary first-order tensor differential equation using 4th-order
+	 * adaptive Runge-Kutta method, pushing states to a consumer as soon as they
+	 * are calculated. Step is halved until weighted RMS norm of a difference
+	 * between consecutive approximations does not exceed 1, every component of a
+	 * difference being divided by {@code atol + rtol * max(|predict|, |correct|)}.
+	 *
+	 * @param <E>        Type of elements in tensors.
+	 * @param tb         Initial time.
+	 * @param te         Ending time.
+	 * @param dt         Default time step.
+	 * @param qt         Minimal time step.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param tF         A field containing operations on a used tensors. Must
+	 *                   support {@link TensorField#diffNorm}.
+	 * @param consumer   Receives states every {@code dt}, starting with
+	 *                   {@code y0} at {@code tb}.
+	 */
+	public static <E, T extends Tensor<E>> void sOFOTDERK(double tb, double te, double dt, double qt, double atol,
+			double rtol, T y0, Derivative<T> derivative, TensorField<E, T> tF,
+			TrajectoryConsumer<? super T> consumer) {
+		DifferentialEquation.sOFOTDERK(tb, te, dt, qt, y0, derivative, tF, consumer,
+				(predict, correct) -> tF.diffNorm(predict, correct, atol, rtol, false) > 1, null, null);
+	}
+
+	/**
+	 * Solves ordinary first-order tensor differential equation using 4th-order
+	 * adaptive Runge-Kutta method, pushing states to a consumer as soon as they
+	 * are calculated. Same as scalar tolerance version, but with tolerances set
+	 * per component.
+	 *
+	 * @param <E>        Type of elements in tensors.
+	 * @param tb         Initial time.
+	 * @param te         Ending time.
+	 * @param dt         Default time step.
+	 * @param qt         Minimal time step.
+	 * @param atol       Absolute tolerances, one per component.
+	 * @param rtol       Relative tolerances, one per component.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param tF         A field containing operations on a used tensors. Must
+	 *                   support {@link TensorField#diffNorm}.
+	 * @param consumer   Receives states every {@code dt}, starting with
+	 *                   {@code y0} at {@code tb}.
+	 */
+	public static <E, T extends Tensor<E>> void sOFOTDERK(double tb, double te, double dt, double qt,
+			double[] atol, double[] rtol, T y0, Derivative<T> derivative, TensorField<E, T> tF,
+			TrajectoryConsumer<? super T> consumer) {
+		DifferentialEquation.sOFOTDERK(tb, te, dt, qt, y0, derivative, tF, consumer,
+				(predict, correct) -> tF.diffNorm(predict, correct, atol, rtol, false) > 1, null, null);
+	}
+
+	/**
+	 * Step halving loop itself. {@code refine} tells if two consecutive
+	 * approximations differ too much. If {@code resume} is given, loop continues
+	 * from it instead of {@code tb} and {@code y0}.
+	 */
+	private static <E, T extends Tensor<E>> void sOFOTDERK(double tb, double te, double dt, double qt, T y0,
+			Derivative<T> derivative, TensorField<E, T> tF, TrajectoryConsumer<? super T> consumer,
+			BiPredicate<T, T> refine, Checkpoint resume, CheckpointWriter checkpoints) {
+		if (checkpoints != null) {
+			Checkpoint.checkSupported(y0);
+		}
+		RungeKuttaStepper<E, T> stepper = new RungeKuttaStepper<E, T>(y0, derivative, tF);
 		T y = tF.copy(y0);
-		T predict;
-		T correct;
+		T predict = tF.zero(y0);
+		T correct = tF.zero(y0);
+		T tmp;
 		double t = tb;
-		double step, tmpT; // An interval used currently for approximation
+		double step; // An interval used currently for approximation
+		long steps = 0;
+		if (resume == null) {
+			consumer.accept(t, y);
+		} else {
+			// State at the checkpoint was reported already
+			resume.checkGrid(Checkpoint.Solver.RUNGE_KUTTA, 0, tb, dt);
+			resume.restore(Checkpoint.Solver.RUNGE_KUTTA, 0, 1, y);
+			t = resume.t;
+			steps = resume.steps;
+		}
 		while (t <= te) {
 			step = dt;
 			// Prediction -- 2^power shifts
-			tmpT = t;
-			correct = y;
-			while (tmpT < (t + dt)) {
-				correct = DifferentialEquation.makeStepKutta(tmpT, step, correct, derivative, tF);
-				tmpT += step;
-//				System.out.println(String.format("Predict at %.6f is %s", tmpT, correct.simpleToString()));
-			}
+			DifferentialEquation.integrateKutta(t, dt, step, y, correct, stepper, tF);
 			do {
+				tmp = predict;
 				predict = correct;
+				correct = tmp;
 				// Correction -- 2*2^power shifts
 				step /= 2;
-				tmpT = t;
-				correct = y;
-				while (tmpT < (t + dt)) {
-					correct = DifferentialEquation.makeStepKutta(tmpT, step, correct, derivative, tF);
-					tmpT += step;
-//					System.out.println(String.format("Predict at %.6f is %s", tmpT, correct.simpleToString()));
-				}
-//				System.out.println(String.format("Norm differ at %.6f: %s.... %s", t,
-//						DifferentialEquation.getNormDiffer(predict, correct, tF),
-//						(badCondition.test(DifferentialEquation.getNormDiffer(predict, correct, tF)) ? "failed"
-//								: "passed!")));
+				DifferentialEquation.integrateKutta(t, dt, step, y, correct, stepper, tF);
 				if (step < qt) {
 //					printf("WARNING! REACHED STEP QUANT\n");
 					break;
 				}
-			} while (badCondition.test(DifferentialEquation.getNormDiffer(predict, correct, tF)));
+			} while (refine.test(predict, correct));
 			// saving current state and advance
 			t += dt;
-			res.put(t, correct);
+			consumer.accept(t, correct);
+			tmp = y;
 			y = correct;
+			correct = tmp;
+			steps++;
+			if ((checkpoints != null) && checkpoints.isDue()) {
+				checkpoints.submit(
+						new Checkpoint(Checkpoint.Solver.RUNGE_KUTTA, 0, t, dt, steps, Checkpoint.values(y), tb));
+			}
 		}
-		return res;
 	}
 
-	private static <E, T extends Tensor<E>> T makeStepKutta(double t, double step, T currentState,
-			BiFunction<Double, T, T> derivative, TensorField<E, T> tF) {
-		T tmpR, k1, k2, k3, k4;
-		// k1
-		k1 = tF.scale(derivative.apply(t, currentState), step, true);
-		tmpR = tF.add(currentState, tF.scale(k1, 1.0d / 2, false), false, true);
-		// k2
-		k2 = tF.scale(derivative.apply(t + (step / 2), tmpR), step, true);
-		tmpR = tF.add(currentState, tF.scale(k2, 1.0d / 2, false), false, true);
-		// k3
-		k3 = tF.scale(derivative.apply(t + (step / 2), tmpR), step, true);
-		tmpR = tF.add(currentState, k3, false, false);
-		// k4
-		k4 = tF.scale(derivative.apply(t + step, tmpR), step, true);
-		// Calculating result: res = current + (k1+k4)/6 + (k2+k3)/3
-//		System.out.println(String.format("At %.6f:\nk1=%s\nk2=%s\nk3=%s\nk4=%s", t, k1.simpleToString(),
-//				k2.simpleToString(), k3.simpleToString(), k4.simpleToString()));
-		return tF.add(currentState, tF.add(tF.scale(tF.add(k1, k4, true, false), 1.0d / 6, true),
-				tF.scale(tF.add(k2, k3, true, false), 1.0d / 3, true)), false, true);
-	}
-
-	private static <E, T extends Tensor<E>> E getNormDiffer(T t1, T t2, TensorField<E, T> tF) {
-		return tF.selfSymFold(tF.sub(t1, t2), Util.orderInt(0, t1.order)).firstComponent();
+	/**
+	 * Solves ordinary first-order tensor differential equation using 4th-order
+	 * adaptive Runge-Kutta method, reporting states at specified time points
+	 * only. States between steps are obtained by cubic Hermite interpolation.
+	 *
+	 * @param <E>          Type of elements in tensors.
+	 * @param tb           Initial time.
+	 * @param times        Output time points, not decreasing and not less than
+	 *                     {@code tb}.
+	 * @param dt           Default time step.
+	 * @param qt           Minimal time step.
+	 * @param badCondition Predicate to determine a case when calculations must be
+	 *                     more precise.
+	 * @param y0           Initial tensor state
+	 * @param derivative   Function, that should write a derivative of a tensor at
+	 *                     time {@code t} point {@code y} to a destination.
+	 * @param tF           A field containing operations on a used tensors.
+	 * @param consumer     Receives state at every output time point.
+	 * @throws IllegalArgumentException If output times are not sorted or precede
+	 *                                  {@code tb}.
+	 */
+	public static <E, T extends Tensor<E>> void sOFOTDERK(double tb, double[] times, double dt, double qt,
+			Predicate<E> badCondition, T y0, Derivative<T> derivative, TensorField<E, T> tF,
+			TrajectoryConsumer<? super T> consumer) throws IllegalArgumentException {
+		DifferentialEquation.checkTimes(tb, times);
+		if (times.length == 0) {
+			return;
+		}
+		DifferentialEquation.sOFOTDERK(tb, times[times.length - 1], dt, qt, badCondition, y0, derivative, tF,
+				new HermiteSampler<E, T>(times, y0, derivative, tF, consumer));
+	}
+
+	/**
+	 * Solves ordinary first-order tensor differential equation using embedded
+	 * Dormand-Prince 5(4) method with adaptive step size.
+	 *
+	 * @param <E>        Type of elements in tensors.
+	 * @param tb         Initial time.
+	 * @param te         Ending time.
+	 * @param h0         Initial time step. Non-positive value means it should be
+	 *                   guessed.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param tF         A field containing operations on a used tensors. Must
+	 *                   support {@link TensorField#rmsNorm}.
+	 * @return A map representing change of a tensor over time, one entry per
+	 *         accepted step.
+	 * @see DormandPrince
+	 */
+	public static <E, T extends Tensor<E>> Map<Double, T> sOFOTDEDP(double tb, double te, double h0, double atol,
+			double rtol, T y0, Derivative<T> derivative, TensorField<E, T> tF) {
+		return new DormandPrince<E, T>(y0, derivative, tF, atol, rtol).solve(tb, te, h0, y0);
+	}
+
+	/**
+	 * Solves ordinary first-order tensor differential equation using embedded
+	 * Dormand-Prince 5(4) method with adaptive step size, pushing states to a
+	 * consumer as soon as they are calculated.
+	 *
+	 * @param <E>        Type of elements in tensors.
+	 * @param tb         Initial time.
+	 * @param te         Ending time.
+	 * @param h0         Initial time step. Non-positive value means it should be
+	 *                   guessed.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param tF         A field containing operations on a used tensors. Must
+	 *                   support {@link TensorField#rmsNorm}.
+	 * @param consumer   Receives state after every accepted step, starting with
+	 *                   {@code y0} at {@code tb}.
+	 * @see DormandPrince
+	 */
+	public static <E, T extends Tensor<E>> void sOFOTDEDP(double tb, double te, double h0, double atol, double rtol,
+			T y0, Derivative<T> derivative, TensorField<E, T> tF, TrajectoryConsumer<? super T> consumer) {
+		new DormandPrince<E, T>(y0, derivative, tF, atol, rtol).solve(tb, te, h0, y0, consumer);
+	}
+
+	/**
+	 * Solves ordinary first-order tensor differential equation using embedded
+	 * Dormand-Prince 5(4) method with adaptive step size, reporting states at
+	 * specified time points only. Steps are chosen by accuracy, states between
+	 * them are obtained from continuous extension of the method.
+	 *
+	 * @param <E>        Type of elements in tensors.
+	 * @param tb         Initial time.
+	 * @param times      Output time points, not decreasing and not less than
+	 *                   {@code tb}.
+	 * @param h0         Initial time step. Non-positive value means it should be
+	 *                   guessed.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param tF         A field containing operations on a used tensors. Must
+	 *                   support {@link TensorField#rmsNorm}.
+	 * @param consumer   Receives state at every output time point.
+	 * @throws IllegalArgumentException If output times are not sorted or precede
+	 *                                  {@code tb}.
+	 * @see DormandPrince
+	 */
+	public static <E, T extends Tensor<E>> void sOFOTDEDP(double tb, double[] times, double h0, double atol,
+			double rtol, T y0, Derivative<T> derivative, TensorField<E, T> tF, TrajectoryConsumer<? super T> consumer)
+			throws IllegalArgumentException {
+		new DormandPrince<E, T>(y0, derivative, tF, atol, rtol).solve(tb, times, h0, y0, consumer);
+	}
+
+	/**
+	 * Same as {@link #sOFOTDEDP(double, double[], double, double, double, Tensor,
+	 * Derivative, TensorField, TrajectoryConsumer)}, but saves checkpoints
+	 * periodically, and may continue from one. Continued run produces exactly the
+	 * same states, as an uninterrupted one would.
+	 *
+	 * @param <E>         Type of elements in tensors.
+	 * @param tb          Initial time.
+	 * @param times       Output time points, not decreasing and not less than
+	 *                    {@code tb}.
+	 * @param h0          Initial time step. Non-positive value means it should be
+	 *                    guessed.
+	 * @param atol        Absolute tolerance.
+	 * @param rtol        Relative tolerance.
+	 * @param y0          Initial tensor state. Must be a {@link DoubleTensor}.
+	 * @param derivative  Function, that should write a derivative of a tensor at
+	 *                    time {@code t} point {@code y} to a destination.
+	 * @param tF          A field containing operations on a used tensors. Must
+	 *                    support {@link TensorField#rmsNorm}.
+	 * @param consumer    Receives state at every output time point, that is after
+	 *                    {@code resume}, if it's given.
+	 * @param resume      Checkpoint to continue from, or null to start at
+	 *                    {@code tb}.
+	 * @param checkpoints Writer to pass checkpoints to, or null.
+	 * @throws IllegalArgumentException      If output times are not sorted or
+	 *                                       precede {@code tb}.
+	 * @throws UnsupportedOperationException If checkpoints are requested, and
+	 *                                       {@code y0} is not a
+	 *                                       {@link DoubleTensor}.
+	 * @see DormandPrince#restore(Checkpoint)
+	 */
+	public static <E, T extends Tensor<E>> void sOFOTDEDP(double tb, double[] times, double h0, double atol,
+			double rtol, T y0, Derivative<T> derivative, TensorField<E, T> tF, TrajectoryConsumer<? super T> consumer,
+			Checkpoint resume, CheckpointWriter checkpoints)
+			throws IllegalArgumentException, UnsupportedOperationException {
+		DifferentialEquation.checkTimes(tb, times);
+		if (checkpoints != null) {
+			Checkpoint.checkSupported(y0);
+		}
+		if (times.length == 0) {
+			return;
+		}
+		DormandPrince<E, T> solver = new DormandPrince<E, T>(y0, derivative, tF, atol, rtol);
+		if (resume == null) {
+			solver.init(tb, y0, h0);
+			for (int i = 0; (i < times.length) && (times[i] == tb); i++) {
+				consumer.accept(times[i], solver.getState());
+			}
+		} else {
+			solver.restore(resume);
+		}
+		solver.advance(times, consumer, checkpoints);
+	}
+
+	/**
+	 * Solves ordinary first-order stiff tensor differential equation using linearly
+	 * implicit Rosenbrock-W 2(3) method with adaptive step size.
+	 *
+	 * @param tb         Initial time.
+	 * @param te         Ending time.
+	 * @param h0         Initial time step. Non-positive value means it should be
+	 *                   guessed.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param jacobian   Jacobian of a derivative. If {@code null}, it is
+	 *                   approximated with finite differences.
+	 * @param tF         A field containing operations on a used tensors.
+	 * @return A map representing change of a tensor over time, one entry per
+	 *         accepted step.
+	 * @see Rosenbrock23
+	 */
+	public static <T extends DoubleTensor> Map<Double, T> sOFOTDERW(double tb, double te, double h0, double atol,
+			double rtol, T y0, Derivative<T> derivative, Jacobian<T> jacobian, DoubleTensorField<T> tF) {
+		return new Rosenbrock23<T>(y0, derivative, jacobian, tF, atol, rtol).solve(tb, te, h0, y0);
+	}
+
+	/**
+	 * Solves ordinary first-order stiff tensor differential equation using linearly
+	 * implicit Rosenbrock-W 2(3) method with adaptive step size, pushing states to
+	 * a consumer as soon as they are calculated.
+	 *
+	 * @param tb         Initial time.
+	 * @param te         Ending time.
+	 * @param h0         Initial time step. Non-positive value means it should be
+	 *                   guessed.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param jacobian   Jacobian of a derivative. If {@code null}, it is
+	 *                   approximated with finite differences.
+	 * @param tF         A field containing operations on a used tensors.
+	 * @param consumer   Receives state after every accepted step, starting with
+	 *                   {@code y0} at {@code tb}.
+	 * @see Rosenbrock23
+	 */
+	public static <T extends DoubleTensor> void sOFOTDERW(double tb, double te, double h0, double atol, double rtol,
+			T y0, Derivative<T> derivative, Jacobian<T> jacobian, DoubleTensorField<T> tF,
+			TrajectoryConsumer<? super T> consumer) {
+		new Rosenbrock23<T>(y0, derivative, jacobian, tF, atol, rtol).solve(tb, te, h0, y0, consumer);
+	}
+
+	/**
+	 * Solves ordinary first-order stiff tensor differential equation using linearly
+	 * implicit Rosenbrock-W 2(3) method with adaptive step size, reporting states
+	 * at specified time points only.
+	 *
+	 * @param tb         Initial time.
+	 * @param times      Output time points, not decreasing and not less than
+	 *                   {@code tb}.
+	 * @param h0         Initial time step. Non-positive value means it should be
+	 *                   guessed.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param jacobian   Jacobian of a derivative. If {@code null}, it is
+	 *                   approximated with finite differences.
+	 * @param tF         A field containing operations on a used tensors.
+	 * @param consumer   Receives state at every output time point.
+	 * @throws IllegalArgumentException If output times are not sorted or precede
+	 *                                  {@code tb}.
+	 * @see Rosenbrock23
+	 */
+	public static <T extends DoubleTensor> void sOFOTDERW(double tb, double[] times, double h0, double atol,
+			double rtol, T y0, Derivative<T> derivative, Jacobian<T> jacobian, DoubleTensorField<T> tF,
+			TrajectoryConsumer<? super T> consumer) throws IllegalArgumentException {
+		new Rosenbrock23<T>(y0, derivative, jacobian, tF, atol, rtol).solve(tb, times, h0, y0, consumer);
+	}
+
+	/**
+	 * Solves ordinary first-order stiff tensor differential equation using
+	 * variable-order backward differentiation formulas with adaptive step size.
+	 *
+	 * @param tb         Initial time.
+	 * @param te         Ending time.
+	 * @param h0         Initial time step. Non-positive value means it should be
+	 *                   guessed.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param jacobian   Jacobian of a derivative. If {@code null}, it is
+	 *                   approximated with finite differences.
+	 * @param tF         A field containing operations on a used tensors.
+	 * @return A map representing change of a tensor over time, one entry per
+	 *         accepted step.
+	 * @see BDF
+	 */
+	public static <T extends DoubleTensor> Map<Double, T> sOFOTDEBDF(double tb, double te, double h0, double atol,
+			double rtol, T y0, Derivative<T> derivative, Jacobian<T> jacobian, DoubleTensorField<T> tF) {
+		return new BDF<T>(y0, derivative, jacobian, tF, atol, rtol).solve(tb, te, h0, y0);
+	}
+
+	/**
+	 * Solves ordinary first-order stiff tensor differential equation using
+	 * variable-order backward differentiation formulas with adaptive step size,
+	 * pushing states to a consumer as soon as they are calculated.
+	 *
+	 * @param tb         Initial time.
+	 * @param te         Ending time.
+	 * @param h0         Initial time step. Non-positive value means it should be
+	 *                   guessed.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param jacobian   Jacobian of a derivative. If {@code null}, it is
+	 *                   approximated with finite differences.
+	 * @param tF         A field containing operations on a used tensors.
+	 * @param consumer   Receives state after every accepted step, starting with
+	 *                   {@code y0} at {@code tb}.
+	 * @see BDF
+	 */
+	public static <T extends DoubleTensor> void sOFOTDEBDF(double tb, double te, double h0, double atol, double rtol,
+			T y0, Derivative<T> derivative, Jacobian<T> jacobian, DoubleTensorField<T> tF,
+			TrajectoryConsumer<? super T> consumer) {
+		new BDF<T>(y0, derivative, jacobian, tF, atol, rtol).solve(tb, te, h0, y0, consumer);
+	}
+
+	/**
+	 * Solves ordinary first-order stiff tensor differential equation using
+	 * variable-order backward differentiation formulas with adaptive step size,
+	 * reporting states at specified time points only.
+	 *
+	 * @param tb         Initial time.
+	 * @param times      Output time points, not decreasing and not less than
+	 *                   {@code tb}.
+	 * @param h0         Initial time step. Non-positive value means it should be
+	 *                   guessed.
+	 * @param atol       Absolute tolerance.
+	 * @param rtol       Relative tolerance.
+	 * @param y0         Initial tensor state
+	 * @param derivative Function, that should write a derivative of a tensor at
+	 *                   time {@code t} point {@code y} to a destination.
+	 * @param jacobian   Jacobian of a derivative. If {@code null}, it is
+	 *                   approximated with finite differences.
+	 * @param tF         A field containing operations on a used tensors.
+	 * @param consumer   Receives state at every output time point.
+	 * @throws IllegalArgumentException If output times are not sorted or precede
+	 *                                  {@code tb}.
+	 * @see BDF
+	 */
+	public static <T extends DoubleTensor> void sOFOTDEBDF(double tb, double[] times, double h0, double atol,
+			double rtol, T y0, Derivative<T> derivative, Jacobian<T> jacobian, DoubleTensorField<T> tF,
+			TrajectoryConsumer<? super T> consumer) throws IllegalArgumentException {
+		new BDF<T>(y0, derivative, jacobian, tF, atol, rtol).solve(tb, times, h0, y0, consumer);
+	}
+
+	/**
+	 * Solves separable Hamiltonian system {@code dq/dt = f(t, p)},
+	 * {@code dp/dt = g(t, q)} using a symplectic method with constant step.
+	 *
+	 * @param <E>                Type of elements in tensors.
+	 * @param tb                 Initial time.
+	 * @param te                 Ending time.
+	 * @param h                  Time step.
+	 * @param scheme             Method to use.
+	 * @param q0                 Initial position.
+	 * @param p0                 Initial velocity.
+	 * @param positionDerivative Function, that should write {@code f} at time
+	 *                           {@code t} and velocity {@code p} to a
+	 *                           destination.
+	 * @param velocityDerivative Function, that should write {@code g} at time
+	 *                           {@code t} and position {@code q} to a
+	 *                           destination.
+	 * @param tF                 A field containing operations on a used tensors.
+	 * @param consumer           Receives state after every step, starting with
+	 *                           initial one at {@code tb}.
+	 * @see SymplecticIntegrator
+	 */
+	public static <E, T extends Tensor<E>> void sOFOTDESY(double tb, double te, double h,
+			SymplecticIntegrator.Scheme scheme, T q0, T p0, Derivative<T> positionDerivative,
+			Derivative<T> velocityDerivative, TensorField<E, T> tF,
+			SymplecticIntegrator.PhaseConsumer<? super T> consumer) {
+		new SymplecticIntegrator<E, T>(scheme, q0, positionDerivative, velocityDerivative, tF).solve(tb, te, h,
+				tF.copy(q0), tF.copy(p0), consumer);
+	}
+
+	/**
+	 * Checks if output times are sorted and do not precede initial time.
+	 */
+	static void checkTimes(double tb, double[] times) throws IllegalArgumentException {
+		double prev = tb;
+		for (double time : times) {
+			if (!(time >= prev)) {
+				throw new IllegalArgumentException("Output times must not decrease and must not precede initial time");
+			}
+			prev = time;
+		}
+	}
+
+	/**
+	 * Guesses initial step of an adaptive method, as proposed by Hairer et al.
+	 * Makes a single derivative evaluation.
+	 *
+	 * @param order Order of a method.
+	 * @param f0    Derivative at {@code (t, y)}.
+	 * @param yTmp  Buffer for intermediate state.
+	 * @param fTmp  Buffer for intermediate derivative.
+	 */
+	static <E, T extends Tensor<E>> double initialStep(double t, T y, T f0, int order, double atol, double rtol,
+			Derivative<T> derivative, TensorField<E, T> tF, T yTmp, T fTmp) {
+		double dnf = tF.rmsNorm(f0, y, y, atol, rtol);
+		double dny = tF.rmsNorm(y, y, y, atol, rtol);
+		double h0 = ((dnf <= 1.0e-10d) || (dny <= 1.0e-10d)) ? 1.0e-6d : (0.01d * (dny / dnf));
+		tF.assign(yTmp, y);
+		tF.axpy(yTmp, h0, f0);
+		derivative.apply(t + h0, yTmp, fTmp);
+		double der2 = tF.rmsNorm(tF.sub(fTmp, f0, fTmp), y, y, atol, rtol) / h0;
+		double der12 = Math.max(der2, dnf);
+		double h1 = (der12 <= 1.0e-15d) ? Math.max(1.0e-6d, h0 * 1.0e-3d)
+				: Math.pow(0.01d / der12, 1.0d / (order + 1));
+		return Math.min(100 * h0, h1);
+	}
+
+	/**
+	 * Integrates over {@code [t, t + dt]} interval with constant {@code step},
+	 * writing result to {@code dest}.
+	 */
+	private static <E, T extends Tensor<E>> T integrateKutta(double t, double dt, double step, T y, T dest,
+			RungeKuttaStepper<E, T> stepper, TensorField<E, T> tF) {
+		tF.assign(dest, y);
+		double tmpT = t;
+		while (tmpT < (t + dt)) {
+			stepper.step(tmpT, step, dest, dest);
+			tmpT += step;
+		}
+		return dest;
 	}
 }
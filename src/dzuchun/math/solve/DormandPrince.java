@@ -0,0 +1,467 @@
+package dzuchun.math.solve;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dzuchun.math.tensor.Tensor;
+import dzuchun.math.tensor.TensorField;
+
+/**
+ * Embedded Dormand-Prince 5(4) Runge-Kutta integrator. Every step provides an
+ * error estimate, that is measured with {@code atol}/{@code rtol} weighted
+ * norm and fed to a PI step-size controller. Accepted step size is carried to
+ * the next step, and last stage of a step is reused as a first stage of the
+ * next one, so an accepted step costs 6 derivative evaluations.
+ *
+ * @author dzu
+ *
+ * @param <E> Type of elements in tensors.
+ * @param <T> Type of a state tensor.
+ */
+public class DormandPrince<E, T extends Tensor<E>> {
+	// Butcher tableau
+	private static final double C2 = 1.0d / 5, C3 = 3.0d / 10, C4 = 4.0d / 5, C5 = 8.0d / 9;
+	private static final double A21 = 1.0d / 5;
+	private static final double A31 = 3.0d / 40, A32 = 9.0d / 40;
+	private static final double A41 = 44.0d / 45, A42 = -56.0d / 15, A43 = 32.0d / 9;
+	private static final double A51 = 19372.0d / 6561, A52 = -25360.0d / 2187, A53 = 64448.0d / 6561,
+			A54 = -212.0d / 729;
+	private static final double A61 = 9017.0d / 3168, A62 = -355.0d / 33, A63 = 46732.0d / 5247,
+			A64 = 49.0d / 176, A65 = -5103.0d / 18656;
+	private static final double A71 = 35.0d / 384, A73 = 500.0d / 1113, A74 = 125.0d / 192,
+			A75 = -2187.0d / 6784, A76 = 11.0d / 84;
+	// Difference between 5th and 4th order solutions
+	private static final double E1 = 71.0d / 57600, E3 = -71.0d / 16695, E4 = 71.0d / 1920,
+			E5 = -17253.0d / 339200, E6 = 22.0d / 525, E7 = -1.0d / 40;
+	// Dense output
+	private static final double D1 = -12715105075.0d / 11282082432L, D3 = 87487479700.0d / 32700410799L,
+			D4 = -10690763975.0d / 1880347072L, D5 = 701980252875.0d / 199316789632L,
+			D6 = -1453857185.0d / 822651844L, D7 = 69997945.0d / 29380423L;
+	// Step-size controller parameters
+	private static final double SAFE = 0.9d, BETA = 0.04d, EXPO1 = 0.2d - (BETA * 0.75d), FAC_MIN = 0.2d,
+			FAC_MAX = 10.0d;
+
+	private final TensorField<E, T> tF;
+	private final Derivative<T> derivative;
+	private final double atol, rtol;
+	private T k1, k2, k3, k4, k5, k6, k7, y, yNew, yTmp, err;
+	private T rc2, rc3, rc4, rc5;
+	// Linear combinations of stages. Terms are refreshed before use, as accepted
+	// steps swap y with yNew and k1 with k7
+	private final T[] terms2, terms3, terms4, terms5, terms6, terms7, termsErr, termsDense;
+	private final double[] coeffs2 = new double[2], coeffs3 = new double[3], coeffs4 = new double[4],
+			coeffs5 = new double[5], coeffs6 = new double[6], coeffs7 = new double[6], coeffsErr = new double[6],
+			coeffsDense = new double[5];
+
+	private double t, h, facOld;
+	private double tOld, hDone;
+	private boolean lastRejected, denseReady;
+	private long evaluations, accepted, rejected;
+
+	/**
+	 * Creates a new integrator.
+	 *
+	 * @param example      Tensor of the same order and size, as states are.
+	 * @param derivativeIn Function, that writes derivative of a tensor at time
+	 *                     {@code t} point {@code y} to a destination.
+	 * @param tFIn         A field containing operations on a used tensors. Must
+	 *                     support {@link TensorField#rmsNorm}.
+	 * @param atolIn       Absolute tolerance.
+	 * @param rtolIn       Relative tolerance.
+	 */
+	@SuppressWarnings("unchecked")
+	public DormandPrince(T example, Derivative<T> derivativeIn, TensorField<E, T> tFIn, double atolIn,
+			double rtolIn) {
+		this.tF = tFIn;
+		this.derivative = derivativeIn;
+		this.atol = atolIn;
+		this.rtol = rtolIn;
+		k1 = tF.zero(example);
+		k2 = tF.zero(example);
+		k3 = tF.zero(example);
+		k4 = tF.zero(example);
+		k5 = tF.zero(example);
+		k6 = tF.zero(example);
+		k7 = tF.zero(example);
+		y = tF.zero(example);
+		yNew = tF.zero(example);
+		yTmp = tF.zero(example);
+		err = tF.zero(example);
+		rc2 = tF.zero(example);
+		rc3 = tF.zero(example);
+		rc4 = tF.zero(example);
+		rc5 = tF.zero(example);
+		terms2 = (T[]) new Tensor<?>[] { y, k1 };
+		terms3 = (T[]) new Tensor<?>[] { y, k1, k2 };
+		terms4 = (T[]) new Tensor<?>[] { y, k1, k2, k3 };
+		terms5 = (T[]) new Tensor<?>[] { y, k1, k2, k3, k4 };
+		terms6 = (T[]) new Tensor<?>[] { y, k1, k2, k3, k4, k5 };
+		terms7 = (T[]) new Tensor<?>[] { y, k1, k3, k4, k5, k6 };
+		termsErr = (T[]) new Tensor<?>[] { k1, k3, k4, k5, k6, k7 };
+		termsDense = (T[]) new Tensor<?>[] { yNew, rc2, rc3, rc4, rc5 };
+		coeffs2[0] = coeffs3[0] = coeffs4[0] = coeffs5[0] = coeffs6[0] = coeffs7[0] = coeffsDense[0] = 1;
+	}
+
+	/**
+	 * Sets initial conditions.
+	 *
+	 * @param tIn Initial time.
+	 * @param yIn Initial state. Is copied.
+	 * @param h0  Initial step. Non-positive value means it should be guessed.
+	 */
+	public void init(double tIn, T yIn, double h0) {
+		t = tOld = tIn;
+		hDone = 0;
+		denseReady = false;
+		tF.assign(y, yIn);
+		evaluate(t, y, k1);
+		h = (h0 > 0) ? h0
+				: DifferentialEquation.initialStep(t, y, k1, 4, atol, rtol, this::evaluate, tF, yTmp, k2);
+		facOld = 1.0e-4d;
+		lastRejected = false;
+	}
+
+	/**
+	 * Attempts a single step, not going beyond {@code te}.
+	 *
+	 * @param te Time to stop at.
+	 * @throws IllegalStateException If step size became too small.
+	 * @return If step was accepted and state has advanced.
+	 */
+	public boolean step(double te) throws IllegalStateException {
+		if (Math.abs(h) <= (10 * Math.ulp(t))) {
+			throw new IllegalStateException(String.format("Step size underflow at t=%s", t));
+		}
+		// Dense output of the previous step is lost from now on
+		tOld = t;
+		hDone = 0;
+		boolean last = (t + (1.01d * h)) >= te;
+		if (last) {
+			h = te - t;
+		}
+		// Stages
+		terms2[0] = terms3[0] = terms4[0] = terms5[0] = terms6[0] = terms7[0] = y;
+		terms2[1] = terms3[1] = terms4[1] = terms5[1] = terms6[1] = terms7[1] = termsErr[0] = k1;
+		termsErr[5] = k7;
+		coeffs2[1] = h * A21;
+		evaluate(t + (C2 * h), tF.linearCombination(yTmp, coeffs2, terms2), k2);
+		coeffs3[1] = h * A31;
+		coeffs3[2] = h * A32;
+		evaluate(t + (C3 * h), tF.linearCombination(yTmp, coeffs3, terms3), k3);
+		coeffs4[1] = h * A41;
+		coeffs4[2] = h * A42;
+		coeffs4[3] = h * A43;
+		evaluate(t + (C4 * h), tF.linearCombination(yTmp, coeffs4, terms4), k4);
+		coeffs5[1] = h * A51;
+		coeffs5[2] = h * A52;
+		coeffs5[3] = h * A53;
+		coeffs5[4] = h * A54;
+		evaluate(t + (C5 * h), tF.linearCombination(yTmp, coeffs5, terms5), k5);
+		coeffs6[1] = h * A61;
+		coeffs6[2] = h * A62;
+		coeffs6[3] = h * A63;
+		coeffs6[4] = h * A64;
+		coeffs6[5] = h * A65;
+		evaluate(t + h, tF.linearCombination(yTmp, coeffs6, terms6), k6);
+		coeffs7[1] = h * A71;
+		coeffs7[2] = h * A73;
+		coeffs7[3] = h * A74;
+		coeffs7[4] = h * A75;
+		coeffs7[5] = h * A76;
+		evaluate(t + h, tF.linearCombination(yNew, coeffs7, terms7), k7);
+		// Error estimation
+		coeffsErr[0] = h * E1;
+		coeffsErr[1] = h * E3;
+		coeffsErr[2] = h * E4;
+		coeffsErr[3] = h * E5;
+		coeffsErr[4] = h * E6;
+		coeffsErr[5] = h * E7;
+		tF.linearCombination(err, coeffsErr, termsErr);
+		double errNorm = tF.rmsNorm(err, y, yNew, atol, rtol);
+		if (Double.isNaN(errNorm)) {
+			errNorm = Double.POSITIVE_INFINITY;
+		}
+		// PI controller
+		double fac11 = Math.pow(errNorm, EXPO1);
+		double fac = fac11 / Math.pow(facOld, BETA);
+		fac = Math.max(1 / FAC_MAX, Math.min(1 / FAC_MIN, fac / SAFE));
+		double hNew = h / fac;
+		if (errNorm <= 1) {
+			facOld = Math.max(errNorm, 1.0e-4d);
+			if (lastRejected) {
+				hNew = Math.min(hNew, h);
+			}
+			lastRejected = false;
+			accepted++;
+			tOld = t;
+			hDone = h;
+			denseReady = false;
+			t = last ? te : (t + h);
+			T tmp = y;
+			y = yNew;
+			yNew = tmp;
+			// First same as last
+			tmp = k1;
+			k1 = k7;
+			k7 = tmp;
+			h = hNew;
+			return true;
+		}
+		lastRejected = true;
+		rejected++;
+		h = h / Math.min(1 / FAC_MIN, fac11 / SAFE);
+		return false;
+	}
+
+	/**
+	 * Solves equation from {@code tb} to {@code te}.
+	 *
+	 * @param tb Initial time.
+	 * @param te Ending time.
+	 * @param h0 Initial step. Non-positive value means it should be guessed.
+	 * @param y0 Initial state.
+	 * @return A map representing change of a tensor over time, one entry per
+	 *         accepted step.
+	 */
+	public Map<Double, T> solve(double tb, double te, double h0, T y0) {
+		Map<Double, T> res = new LinkedHashMap<Double, T>(0);
+		solve(tb, te, h0, y0, (t, y) -> res.put(t, tF.copy(y)));
+		return res;
+	}
+
+	/**
+	 * Solves equation from {@code tb} to {@code te}, pushing states to a consumer
+	 * as soon as they are calculated.
+	 *
+	 * @param tb       Initial time.
+	 * @param te       Ending time.
+	 * @param h0       Initial step. Non-positive value means it should be guessed.
+	 * @param y0       Initial state.
+	 * @param consumer Receives state after every accepted step, starting with
+	 *                 {@code y0} at {@code tb}.
+	 */
+	public void solve(double tb, double te, double h0, T y0, TrajectoryConsumer<? super T> consumer) {
+		init(tb, y0, h0);
+		consumer.accept(t, y);
+		advance(te, consumer, null);
+	}
+
+	/**
+	 * Continues integration from the current state (set by {@link #init} or
+	 * {@link #restore}) up to {@code te}.
+	 *
+	 * @param te          Ending time.
+	 * @param consumer    Receives state after every accepted step.
+	 * @param checkpoints Writer to pass checkpoints to, when they are due. May be
+	 *                    null.
+	 * @throws UnsupportedOperationException If checkpoints are requested, and
+	 *                                       state is not a
+	 *                                       {@link dzuchun.math.tensor.DoubleTensor}.
+	 */
+	public void advance(double te, TrajectoryConsumer<? super T> consumer, CheckpointWriter checkpoints)
+			throws UnsupportedOperationException {
+		if (checkpoints != null) {
+			Checkpoint.checkSupported(y);
+		}
+		while (t < te) {
+			if (step(te)) {
+				consumer.accept(t, y);
+				if ((checkpoints != null) && checkpoints.isDue()) {
+					checkpoints.submit(checkpoint());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Solves equation, reporting states at specified time points only. Internal
+	 * steps are chosen by accuracy, and states between them are obtained from
+	 * the continuous extension of the method.
+	 *
+	 * @param tb       Initial time.
+	 * @param times    Output time points, not decreasing and not less than
+	 *                 {@code tb}.
+	 * @param h0       Initial step. Non-positive value means it should be guessed.
+	 * @param y0       Initial state.
+	 * @param consumer Receives state at every output time point.
+	 * @throws IllegalArgumentException If output times are not sorted or precede
+	 *                                  {@code tb}.
+	 */
+	public void solve(double tb, double[] times, double h0, T y0, TrajectoryConsumer<? super T> consumer)
+			throws IllegalArgumentException {
+		DifferentialEquation.checkTimes(tb, times);
+		if (times.length == 0) {
+			return;
+		}
+		init(tb, y0, h0);
+		int i = 0;
+		while ((i < times.length) && (times[i] == tb)) {
+			consumer.accept(times[i++], y);
+		}
+		advance(times, consumer, null);
+	}
+
+	/**
+	 * Continues integration from the current state (set by {@link #init} or
+	 * {@link #restore}) up to the last output time point, reporting states at
+	 * time points after the current time.
+	 *
+	 * @param times       Output time points, not decreasing. Points not after the
+	 *                    current time are skipped.
+	 * @param consumer    Receives state at every output time point.
+	 * @param checkpoints Writer to pass checkpoints to, when they are due. May be
+	 *                    null.
+	 * @throws UnsupportedOperationException If checkpoints are requested, and
+	 *                                       state is not a
+	 *                                       {@link dzuchun.math.tensor.DoubleTensor}.
+	 */
+	public void advance(double[] times, TrajectoryConsumer<? super T> consumer, CheckpointWriter checkpoints)
+			throws UnsupportedOperationException {
+		if (checkpoints != null) {
+			Checkpoint.checkSupported(y);
+		}
+		if (times.length == 0) {
+			return;
+		}
+		T out = tF.zero(y);
+		int i = 0;
+		while ((i < times.length) && (times[i] <= t)) {
+			i++;
+		}
+		final double te = times[times.length - 1];
+		while (i < times.length) {
+			if (step(te)) {
+				while ((i < times.length) && (times[i] <= t)) {
+					consumer.accept(times[i], (times[i] == t) ? y : interpolate(times[i], out));
+					i++;
+				}
+				if ((checkpoints != null) && checkpoints.isDue()) {
+					checkpoints.submit(checkpoint());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves time, state, step size and controller state. Can be restored by an
+	 * integrator of the same equation and tolerances.
+	 *
+	 * @throws UnsupportedOperationException If state is not a
+	 *                                       {@link dzuchun.math.tensor.DoubleTensor}.
+	 * @return A checkpoint.
+	 */
+	public Checkpoint checkpoint() throws UnsupportedOperationException {
+		return new Checkpoint(Checkpoint.Solver.DORMAND_PRINCE, 0, t, h, accepted, Checkpoint.values(y), facOld,
+				lastRejected ? 1 : 0);
+	}
+
+	/**
+	 * Continues from a checkpoint, instead of {@link #init}. Further steps are
+	 * exactly the same, as they were in a run checkpoint was made by.
+	 *
+	 * @param checkpoint Checkpoint made by {@link #checkpoint()}.
+	 * @throws IllegalArgumentException      If checkpoint was made by another
+	 *                                       solver, or for another state size.
+	 * @throws UnsupportedOperationException If state is not a
+	 *                                       {@link dzuchun.math.tensor.DoubleTensor}.
+	 */
+	public void restore(Checkpoint checkpoint) throws IllegalArgumentException, UnsupportedOperationException {
+		checkpoint.restore(Checkpoint.Solver.DORMAND_PRINCE, 0, 2, y);
+		t = tOld = checkpoint.t;
+		hDone = 0;
+		denseReady = false;
+		h = checkpoint.h;
+		facOld = checkpoint.getController(0);
+		lastRejected = checkpoint.getController(1) != 0;
+		accepted = checkpoint.steps;
+		// Same as the last stage of a step checkpoint was made after
+		evaluate(t, y, k1);
+	}
+
+	/**
+	 * Evaluates continuous extension of the last accepted step. Is 4th-order
+	 * accurate. Available until the next step attempt.
+	 *
+	 * @param tOut Time point within the last accepted step.
+	 * @param dest Tensor to write state to.
+	 * @throws IllegalArgumentException If time point is outside the last step.
+	 * @return {@code dest}
+	 */
+	public T interpolate(double tOut, T dest) throws IllegalArgumentException {
+		if ((tOut < tOld) || (tOut > t)) {
+			throw new IllegalArgumentException(
+					String.format("Time %s is outside of last step [%s, %s]", tOut, tOld, t));
+		}
+		if (hDone == 0) {
+			return tF.assign(dest, y);
+		}
+		if (!denseReady) {
+			prepareDense();
+		}
+		double theta = (tOut - tOld) / hDone;
+		double theta1 = 1 - theta;
+		// y = rc1 + theta*(rc2 + theta1*(rc3 + theta*(rc4 + theta1*rc5)))
+		termsDense[0] = yNew;
+		coeffsDense[1] = theta;
+		coeffsDense[2] = theta * theta1;
+		coeffsDense[3] = theta * theta * theta1;
+		coeffsDense[4] = theta * theta * theta1 * theta1;
+		return tF.linearCombination(dest, coeffsDense, termsDense);
+	}
+
+	/**
+	 * Calculates dense output coefficients. After a step is accepted, {@code yNew}
+	 * holds previous state, {@code k7} holds previous derivative, and {@code k1}
+	 * holds current one.
+	 */
+	private void prepareDense() {
+		tF.sub(y, yNew, rc2);
+		tF.sub(tF.scale(k7, hDone, rc3), rc2, rc3);
+		tF.axpy(tF.sub(rc2, rc3, rc4), -hDone, k1);
+		tF.scale(k7, hDone * D1, rc5);
+		tF.axpy(rc5, hDone * D3, k3);
+		tF.axpy(rc5, hDone * D4, k4);
+		tF.axpy(rc5, hDone * D5, k5);
+		tF.axpy(rc5, hDone * D6, k6);
+		tF.axpy(rc5, hDone * D7, k1);
+		denseReady = true;
+	}
+
+	/**
+	 * @return Current time.
+	 */
+	public double getTime() {
+		return t;
+	}
+
+	/**
+	 * @return Current state. Is overwritten by further steps.
+	 */
+	public T getState() {
+		return y;
+	}
+
+	/**
+	 * @return Step size to be attempted next.
+	 */
+	public double getStep() {
+		return h;
+	}
+
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	public long getAcceptedSteps() {
+		return accepted;
+	}
+
+	public long getRejectedSteps() {
+		return rejected;
+	}
+
+	private void evaluate(double tIn, T yIn, T dest) {
+		evaluations++;
+		derivative.apply(tIn, yIn, dest);
+	}
+}
@@ -0,0 +1,68 @@
+package dzuchun.math.solve;
+
+import dzuchun.math.Dual;
+import dzuchun.math.DualRing;
+import dzuchun.math.tensor.DoubleTensor;
+import dzuchun.math.tensor.IndexIterator;
+import dzuchun.math.tensor.Tensor;
+import dzuchun.math.tensor.TensorField;
+
+/**
+ * Exact Jacobian, calculated with forward-mode automatic differentiation.
+ * Derivative is written over {@link Dual} numbers once, and is evaluated with
+ * every state component seeded as a separate variable, so a whole Jacobian
+ * costs a single (if wider) evaluation and has no truncation error.
+ *
+ * @author dzu
+ *
+ * @param <T> Type of a state tensor.
+ */
+public class DualJacobian<T extends DoubleTensor> implements Jacobian<T> {
+	private final Derivative<Tensor<Dual>> dualDerivative;
+	private final DualRing ring;
+	private final Tensor<Dual> y, f;
+	private final IndexIterator iterator;
+
+	/**
+	 * @param example          Tensor of the same order and size, as states are.
+	 * @param dualDerivativeIn Derivative over tensors of dual numbers. Dual
+	 *                         numbers have one direction per state component,
+	 *                         in order of {@link IndexIterator} offsets.
+	 */
+	public DualJacobian(T example, Derivative<Tensor<Dual>> dualDerivativeIn) {
+		this.dualDerivative = dualDerivativeIn;
+		ring = new DualRing(example.length());
+		TensorField<Dual, Tensor<Dual>> tF = new TensorField<Dual, Tensor<Dual>>(ring, new Dual[1], Dual::new,
+				Tensor::new, DualRing::magnitude);
+		y = tF.zero(example.order, example.size);
+		f = tF.zero(example.order, example.size);
+		iterator = new IndexIterator(example.order, example.size);
+	}
+
+	@Override
+	public void apply(double t, T yIn, DoubleTensor dest) {
+		Dual component;
+		iterator.reset();
+		while (iterator.advance()) {
+			component = y.getComponentAt(iterator.index());
+			ring.set(component, yIn.getValue(iterator.offset()));
+			component.derivatives[iterator.offset()] = 1;
+		}
+		dualDerivative.apply(t, y, f);
+		int n = ring.dimension;
+		iterator.reset();
+		while (iterator.advance()) {
+			component = f.getComponentAt(iterator.index());
+			for (int j = 0; j < n; j++) {
+				dest.setValue(component.derivatives[j], (iterator.offset() * n) + j);
+			}
+		}
+	}
+
+	/**
+	 * @return Ring of dual numbers, derivative is evaluated with.
+	 */
+	public DualRing getRing() {
+		return ring;
+	}
+}
@@ -0,0 +1,26 @@
+package dzuchun.math.solve;
+
+/**
+ * Right-hand side of a differential equation, evaluated for a whole ensemble
+ * of states at once. States are stored as per-component columns, so
+ * {@code y[c][n]} is {@code c}-th component of {@code n}-th state.
+ *
+ * @author dzu
+ *
+ */
+@FunctionalInterface
+public interface EnsembleDerivative {
+
+	/**
+	 * Must write derivatives of states {@code from} (inclusive) to {@code to}
+	 * (exclusive) at time {@code t} to {@code dest}. Must not modify {@code y}
+	 * and other states in {@code dest}.
+	 *
+	 * @param t    Time point.
+	 * @param y    Component columns of current states.
+	 * @param dest Component columns to write derivatives to.
+	 * @param from First state to process.
+	 * @param to   State after the last one to process.
+	 */
+	void apply(double t, double[][] y, double[][] dest, int from, int to);
+}
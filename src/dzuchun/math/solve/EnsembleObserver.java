@@ -0,0 +1,18 @@
+package dzuchun.math.solve;
+
+/**
+ * Receives ensemble states as they are produced by {@link EnsembleSolver}.
+ *
+ * @author dzu
+ *
+ */
+@FunctionalInterface
+public interface EnsembleObserver {
+
+	/**
+	 * @param t Time point.
+	 * @param y States at time {@code t}. Are overwritten by further steps, so
+	 *          copy anything that should be retained.
+	 */
+	void accept(double t, EnsembleState y);
+}
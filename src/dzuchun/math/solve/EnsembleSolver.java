@@ -0,0 +1,213 @@
+package dzuchun.math.solve;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classic 4th-order Runge-Kutta solver, advancing many states of the same
+ * equation together. Derivative is called once per stage for a whole ensemble,
+ * and all the arithmetic runs over long primitive columns. If a pool is
+ * specified, ensemble is split into chunks, that are stepped concurrently.
+ *
+ * @author dzu
+ *
+ */
+public class EnsembleSolver {
+	public final int dimension;
+	public final int count;
+	private final EnsembleDerivative derivative;
+	private final double[][] k1, k2, k3, k4, tmp;
+	private final ForkJoinPool pool;
+	private final int chunk;
+
+	/**
+	 * Creates a new sequential solver.
+	 *
+	 * @param dimensionIn  Number of components in a state.
+	 * @param countIn      Number of states.
+	 * @param derivativeIn Right-hand side of an equation.
+	 */
+	public EnsembleSolver(int dimensionIn, int countIn, EnsembleDerivative derivativeIn) {
+		this(dimensionIn, countIn, derivativeIn, null, Math.max(countIn, 1));
+	}
+
+	/**
+	 * Creates a new parallel solver.
+	 *
+	 * @param dimensionIn  Number of components in a state.
+	 * @param countIn      Number of states.
+	 * @param derivativeIn Right-hand side of an equation. Is called concurrently
+	 *                     for disjoint ranges of states.
+	 * @param poolIn       Pool to run chunks on. Null means sequential solver.
+	 * @param chunkIn      Maximal number of states stepped by a single task.
+	 */
+	public EnsembleSolver(int dimensionIn, int countIn, EnsembleDerivative derivativeIn, ForkJoinPool poolIn,
+			int chunkIn) {
+		if (chunkIn <= 0) {
+			throw new IllegalArgumentException("Chunk must be positive");
+		}
+		this.dimension = dimensionIn;
+		this.count = countIn;
+		this.derivative = derivativeIn;
+		this.pool = poolIn;
+		this.chunk = chunkIn;
+		k1 = new double[dimension][count];
+		k2 = new double[dimension][count];
+		k3 = new double[dimension][count];
+		k4 = new double[dimension][count];
+		tmp = new double[dimension][count];
+	}
+
+	/**
+	 * Makes a single step for all the states.
+	 *
+	 * @param t    Current time.
+	 * @param step Time step.
+	 * @param y    States at time {@code t}. Are overwritten by states at time
+	 *             {@code t + step}.
+	 */
+	public void step(double t, double step, EnsembleState y) {
+		checkState(y);
+		stepAll(t, step, y.columns);
+	}
+
+	/**
+	 * Advances states from {@code tb} to {@code te} with constant step (last step
+	 * is shortened to hit {@code te} exactly).
+	 *
+	 * @param tb       Initial time.
+	 * @param te       Ending time.
+	 * @param dt       Time step.
+	 * @param y        Initial states. Are overwritten by further states.
+	 * @param observer Receives states after every step. May be null.
+	 * @return Time states were advanced to.
+	 */
+	public double advance(double tb, double te, double dt, EnsembleState y, EnsembleObserver observer) {
+		return advance(tb, te, dt, y, observer, null, null);
+	}
+
+	/**
+	 * Same as {@link #advance(double, double, double, EnsembleState,
+	 * EnsembleObserver)}, but saves checkpoints periodically, and may continue
+	 * from one. Continued run produces exactly the same states, as an
+	 * uninterrupted one would.
+	 *
+	 * @param tb          Initial time.
+	 * @param te          Ending time.
+	 * @param dt          Time step.
+	 * @param y           Initial states. Are overwritten by further states.
+	 * @param observer    Receives states after every step. May be null.
+	 * @param resume      Checkpoint to continue from, or null to start at
+	 *                    {@code tb}. Overwrites {@code y}.
+	 * @param checkpoints Writer to pass checkpoints to, or null.
+	 * @throws IllegalArgumentException If checkpoint was made by another solver,
+	 *                                  for another ensemble size, or with another
+	 *                                  {@code tb} or {@code dt}.
+	 * @return Time states were advanced to.
+	 */
+	public double advance(double tb, double te, double dt, EnsembleState y, EnsembleObserver observer,
+			Checkpoint resume, CheckpointWriter checkpoints) throws IllegalArgumentException {
+		checkState(y);
+		double t = tb, next;
+		long first = 1;
+		if (resume != null) {
+			resume.checkGrid(Checkpoint.Solver.ENSEMBLE, 0, tb, dt);
+			resume.restore(Checkpoint.Solver.ENSEMBLE, 1, y.columns);
+			t = resume.t;
+			first = resume.steps + 1;
+		}
+		long steps = (long) Math.ceil(((te - tb) / dt) - 1.0e-9d);
+		for (long i = first; i <= steps; i++) {
+			next = (i == steps) ? te : (tb + (i * dt));
+			stepAll(t, next - t, y.columns);
+			t = next;
+			if (observer != null) {
+				observer.accept(t, y);
+			}
+			if ((checkpoints != null) && checkpoints.isDue()) {
+				checkpoints.submit(
+						new Checkpoint(Checkpoint.Solver.ENSEMBLE, 0, t, dt, i, Checkpoint.values(y.columns), tb));
+			}
+		}
+		return t;
+	}
+
+	private void stepAll(double t, double h, double[][] y) {
+		if ((pool == null) || (count <= chunk)) {
+			step(t, h, y, 0, count);
+		} else {
+			pool.invoke(new ChunkStep(t, h, y, 0, count));
+		}
+	}
+
+	/**
+	 * Splits a range of states, until it fits a chunk. States are independent, so
+	 * every chunk makes a whole step on it's own.
+	 */
+	private class ChunkStep extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final double t, h;
+		private final double[][] y;
+		private final int from, to;
+
+		ChunkStep(double tIn, double hIn, double[][] yIn, int fromIn, int toIn) {
+			this.t = tIn;
+			this.h = hIn;
+			this.y = yIn;
+			this.from = fromIn;
+			this.to = toIn;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) <= chunk) {
+				step(t, h, y, from, to);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ChunkStep(t, h, y, from, mid), new ChunkStep(t, h, y, mid, to));
+			}
+		}
+	}
+
+	/**
+	 * Makes a single step for states {@code from} (inclusive) to {@code to}
+	 * (exclusive).
+	 */
+	protected void step(double t, double h, double[][] y, int from, int to) {
+		final double h2 = h / 2, h6 = h / 6;
+		derivative.apply(t, y, k1, from, to);
+		for (int c = 0; c < dimension; c++) {
+			final double[] yc = y[c], kc = k1[c], tc = tmp[c];
+			for (int n = from; n < to; n++) {
+				tc[n] = yc[n] + (h2 * kc[n]);
+			}
+		}
+		derivative.apply(t + h2, tmp, k2, from, to);
+		for (int c = 0; c < dimension; c++) {
+			final double[] yc = y[c], kc = k2[c], tc = tmp[c];
+			for (int n = from; n < to; n++) {
+				tc[n] = yc[n] + (h2 * kc[n]);
+			}
+		}
+		derivative.apply(t + h2, tmp, k3, from, to);
+		for (int c = 0; c < dimension; c++) {
+			final double[] yc = y[c], kc = k3[c], tc = tmp[c];
+			for (int n = from; n < to; n++) {
+				tc[n] = yc[n] + (h * kc[n]);
+			}
+		}
+		derivative.apply(t + h, tmp, k4, from, to);
+		for (int c = 0; c < dimension; c++) {
+			final double[] yc = y[c], k1c = k1[c], k2c = k2[c], k3c = k3[c], k4c = k4[c];
+			for (int n = from; n < to; n++) {
+				yc[n] += h6 * ((k1c[n] + k4c[n]) + (2 * (k2c[n] + k3c[n])));
+			}
+		}
+	}
+
+	private void checkState(EnsembleState y) throws IllegalArgumentException {
+		if ((y.dimension != dimension) || (y.count != count)) {
+			throw new IllegalArgumentException("Ensemble does not match solver's dimension or count");
+		}
+	}
+}
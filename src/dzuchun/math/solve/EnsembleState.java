@@ -0,0 +1,51 @@
+package dzuchun.math.solve;
+
+/**
+ * States of an ensemble, stored as contiguous per-component columns.
+ *
+ * @author dzu
+ *
+ */
+public class EnsembleState {
+	public final int dimension;
+	public final int count;
+	/**
+	 * {@code columns[c][n]} is {@code c}-th component of {@code n}-th state.
+	 */
+	public final double[][] columns;
+
+	/**
+	 * Creates zero states.
+	 *
+	 * @param dimensionIn Number of components in a state.
+	 * @param countIn     Number of states.
+	 */
+	public EnsembleState(int dimensionIn, int countIn) {
+		this.dimension = dimensionIn;
+		this.count = countIn;
+		this.columns = new double[dimension][count];
+	}
+
+	public double get(int component, int n) {
+		return this.columns[component][n];
+	}
+
+	public void set(double value, int component, int n) {
+		this.columns[component][n] = value;
+	}
+
+	/**
+	 * Sets all components of {@code n}-th state.
+	 *
+	 * @param n      Index of a state.
+	 * @param values Components.
+	 */
+	public void setState(int n, double... values) {
+		if (values.length != this.dimension) {
+			throw new IllegalArgumentException("Number of components specified for a state is incorrect");
+		}
+		for (int c = 0; c < dimension; c++) {
+			this.columns[c][n] = values[c];
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package dzuchun.math.solve;
+
+import dzuchun.math.tensor.DoubleTensor;
+import dzuchun.math.tensor.DoubleTensorField;
+
+/**
+ * Approximates Jacobian with forward differences, perturbing one component at
+ * a time. Costs {@code n} derivative evaluations for a state with {@code n}
+ * components, if derivative at the state is passed, and {@code n + 1}
+ * otherwise. Is used by implicit solvers, if no analytic Jacobian is provided.
+ *
+ * @author dzu
+ *
+ * @param <T> Type of a state tensor.
+ */
+public class FiniteDifferenceJacobian<T extends DoubleTensor> implements Jacobian<T> {
+	private static final double EPS = Math.ulp(1.0d);
+
+	private final Derivative<T> derivative;
+	private final DoubleTensorField<T> tF;
+	private final T f0, f1, yTmp;
+	private long evaluations;
+
+	/**
+	 * @param example      Tensor of the same order and size, as states are.
+	 * @param derivativeIn Function to differentiate.
+	 * @param tFIn         A field containing operations on a used tensors.
+	 */
+	public FiniteDifferenceJacobian(T example, Derivative<T> derivativeIn, DoubleTensorField<T> tFIn) {
+		this.derivative = derivativeIn;
+		this.tF = tFIn;
+		f0 = tF.zero(example);
+		f1 = tF.zero(example);
+		yTmp = tF.zero(example);
+	}
+
+	@Override
+	public void apply(double t, T y, DoubleTensor dest) {
+		derivative.apply(t, y, f0);
+		evaluations++;
+		apply(t, y, f0, dest);
+	}
+
+	@Override
+	public void apply(double t, T y, T f, DoubleTensor dest) {
+		int n = y.length();
+		tF.assign(yTmp, y);
+		double yj, delta;
+		for (int j = 0; j < n; j++) {
+			yj = y.getValue(j);
+			// Increment proposed by Hairer and Wanner for RADAU5
+			delta = Math.sqrt(EPS * Math.max(1.0e-5d, Math.abs(yj)));
+			yTmp.setValue(yj + delta, j);
+			// Exactly representable increment
+			delta = yTmp.getValue(j) - yj;
+			derivative.apply(t, yTmp, f1);
+			evaluations++;
+			yTmp.setValue(yj, j);
+			for (int i = 0; i < n; i++) {
+				dest.setValue((f1.getValue(i) - f.getValue(i)) / delta, (i * n) + j);
+			}
+		}
+	}
+
+	/**
+	 * @return Number of derivative evaluations made so far.
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+}
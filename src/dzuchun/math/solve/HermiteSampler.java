@@ -0,0 +1,74 @@
+package dzuchun.math.solve;
+
+import dzuchun.math.tensor.Tensor;
+import dzuchun.math.tensor.TensorField;
+
+/**
+ * Turns a stream of solver's states into states at specified output times, by
+ * cubic Hermite interpolation between consecutive states. Derivatives at
+ * interval ends are evaluated only for intervals containing output times.
+ *
+ * @author dzu
+ *
+ * @param <E> Type of elements in tensors.
+ * @param <T> Type of a state tensor.
+ */
+class HermiteSampler<E, T extends Tensor<E>> implements TrajectoryConsumer<T> {
+	private final double[] times;
+	private final Derivative<T> derivative;
+	private final TensorField<E, T> tF;
+	private final TrajectoryConsumer<? super T> consumer;
+	private final T prev, fPrev, fCurr, out;
+	private final double[] coeffs = new double[4];
+	private final T[] terms;
+	private double tPrev;
+	private boolean started;
+	private int next;
+
+	@SuppressWarnings("unchecked")
+	HermiteSampler(double[] timesIn, T example, Derivative<T> derivativeIn, TensorField<E, T> tFIn,
+			TrajectoryConsumer<? super T> consumerIn) {
+		this.times = timesIn;
+		this.derivative = derivativeIn;
+		this.tF = tFIn;
+		this.consumer = consumerIn;
+		prev = tF.zero(example);
+		fPrev = tF.zero(example);
+		fCurr = tF.zero(example);
+		out = tF.zero(example);
+		terms = (T[]) new Tensor<?>[] { prev, fPrev, null, fCurr };
+	}
+
+	@Override
+	public void accept(double t, T state) {
+		if (started && (next < times.length) && (times[next] <= t)) {
+			double dt = t - tPrev;
+			derivative.apply(tPrev, prev, fPrev);
+			derivative.apply(t, state, fCurr);
+			double theta, theta2, theta3;
+			while ((next < times.length) && (times[next] <= t)) {
+				if (times[next] == t) {
+					consumer.accept(t, state);
+				} else {
+					theta = (times[next] - tPrev) / dt;
+					theta2 = theta * theta;
+					theta3 = theta2 * theta;
+					coeffs[0] = ((2 * theta3) - (3 * theta2)) + 1;
+					coeffs[1] = dt * ((theta3 - (2 * theta2)) + theta);
+					coeffs[2] = (-2 * theta3) + (3 * theta2);
+					coeffs[3] = dt * (theta3 - theta2);
+					terms[2] = state;
+					consumer.accept(times[next], tF.linearCombination(out, coeffs, terms));
+				}
+				next++;
+			}
+		} else if (!started) {
+			while ((next < times.length) && (times[next] == t)) {
+				consumer.accept(times[next++], state);
+			}
+		}
+		started = true;
+		tPrev = t;
+		tF.assign(prev, state);
+	}
+}
@@ -0,0 +1,42 @@
+package dzuchun.math.solve;
+
+import dzuchun.math.tensor.DoubleTensor;
+
+/**
+ * Jacobian matrix of a {@link Derivative}, used by implicit solvers. States are
+ * treated as flat vectors of their components, so Jacobian of a state with
+ * {@code n} components is a rank-2 {@link DoubleTensor} of size {@code n},
+ * with {@code dest[i][j] = d f_i / d y_j}.
+ *
+ * @author dzu
+ *
+ * @param <T> Type of a state tensor.
+ */
+@FunctionalInterface
+public interface Jacobian<T extends DoubleTensor> {
+
+	/**
+	 * Must write Jacobian of a derivative at time {@code t} and state {@code y}
+	 * to {@code dest}. Must not modify {@code y}.
+	 *
+	 * @param t    Time point.
+	 * @param y    Current state.
+	 * @param dest Matrix to write Jacobian to.
+	 */
+	void apply(double t, T y, DoubleTensor dest);
+
+	/**
+	 * Same as {@link #apply(double, DoubleTensor, DoubleTensor)}, but also gets
+	 * derivative at {@code y}, that caller has evaluated already. Should be
+	 * overridden by implementations, that would evaluate it otherwise.
+	 *
+	 * @param t    Time point.
+	 * @param y    Current state.
+	 * @param f    Derivative at time {@code t} and state {@code y}. Must not be
+	 *             modified.
+	 * @param dest Matrix to write Jacobian to.
+	 */
+	default void apply(double t, T y, T f, DoubleTensor dest) {
+		apply(t, y, dest);
+	}
+}
@@ -0,0 +1,105 @@
+package dzuchun.math.solve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Solves independent initial conditions concurrently on a
+ * {@link ForkJoinPool}. Results are always returned in order of initial
+ * conditions, regardless of the order tasks finish in.
+ *
+ * @author dzu
+ *
+ */
+public class ParallelSolver {
+
+	@FunctionalInterface
+	/**
+	 * Receives notifications about finished tasks. Is called from worker threads,
+	 * so must be thread-safe.
+	 *
+	 * @author dzu
+	 *
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param index    Index of an initial condition, that was just solved.
+		 * @param finished Number of tasks finished so far (including this one).
+		 * @param total    Total number of tasks.
+		 */
+		void taskFinished(int index, int finished, int total);
+	}
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a solver with a pool of it's own.
+	 *
+	 * @param parallelism Number of worker threads.
+	 */
+	public ParallelSolver(int parallelism) {
+		this(new ForkJoinPool(parallelism));
+	}
+
+	/**
+	 * Creates a solver, running tasks on a specified pool.
+	 *
+	 * @param poolIn Pool to use.
+	 */
+	public ParallelSolver(ForkJoinPool poolIn) {
+		this.pool = poolIn;
+	}
+
+	/**
+	 * Solves every initial condition.
+	 *
+	 * @param <S>      Type of initial conditions.
+	 * @param <R>      Type of solutions.
+	 * @param initial  Initial conditions.
+	 * @param solver   Function solving a single initial condition. Is called
+	 *                 concurrently, so must be thread-safe.
+	 * @param progress Receives notifications about finished tasks. May be null.
+	 * @throws RuntimeException If any of solutions failed.
+	 * @return Solutions in the same order, as initial conditions are.
+	 */
+	@SuppressWarnings("unchecked")
+	public <S, R> List<R> solveAll(List<S> initial, Function<S, R> solver, ProgressListener progress)
+			throws RuntimeException {
+		final int total = initial.size();
+		final Object[] res = new Object[total];
+		final AtomicInteger finished = new AtomicInteger(0);
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(total);
+		for (int n = 0; n < total; n++) {
+			final int index = n;
+			final S s = initial.get(n);
+			tasks.add(ForkJoinTask.adapt(() -> {
+				res[index] = solver.apply(s);
+				int done = finished.incrementAndGet();
+				if (progress != null) {
+					progress.taskFinished(index, done, total);
+				}
+			}));
+		}
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+		return (List<R>) Arrays.asList(res);
+	}
+
+	/**
+	 * @return Number of worker threads.
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Shuts the pool down. Should not be called for a shared pool.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
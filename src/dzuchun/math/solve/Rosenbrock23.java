@@ -0,0 +1,393 @@
+package dzuchun.math.solve;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dzuchun.math.tensor.DoubleLU;
+import dzuchun.math.tensor.DoubleTensor;
+import dzuchun.math.tensor.DoubleTensorField;
+
+/**
+ * Linearly implicit Rosenbrock-W 2(3) integrator of Shampine and Reichelt
+ * (MATLAB's {@code ode23s}) for stiff equations. Each step solves three linear
+ * systems with the same matrix {@code W = I - h d J}, so a step costs one
+ * Jacobian, one LU decomposition and three derivative evaluations (plus one for
+ * {@code df/dt}). Last derivative of a step is reused as a first one of the
+ * next step.
+ * <p>
+ * Method stays stable with an approximate Jacobian, so a finite-difference one
+ * is used, if no analytic Jacobian is provided.
+ *
+ * @author dzu
+ *
+ * @param <T> Type of a state tensor.
+ */
+public class Rosenbrock23<T extends DoubleTensor> {
+	private static final double D = 1 / (2 + Math.sqrt(2)), E32 = 6 + Math.sqrt(2);
+	private static final double SQRT_EPS = Math.sqrt(Math.ulp(1.0d));
+
+	private final DoubleTensorField<T> tF;
+	private final Derivative<T> derivative;
+	private final Jacobian<T> jacobian;
+	private final double atol, rtol;
+	private final DoubleTensor jac;
+	private final DoubleLU lu;
+	private T y, yNew, f0, f1, f2, dfdt, k1, k2, k3, yTmp, err;
+	// Terms are refreshed before use, as accepted steps swap f0 with f2
+	private final T[] terms3, terms6;
+	private final double[] coeffs3 = new double[3], coeffs6 = new double[6];
+
+	private double t, h;
+	private double tOld, hDone;
+	private boolean jacobianCurrent;
+	private long evaluations, jacobians, accepted, rejected;
+
+	/**
+	 * Creates a new integrator.
+	 *
+	 * @param example      Tensor of the same order and size, as states are.
+	 * @param derivativeIn Function, that writes derivative of a tensor at time
+	 *                     {@code t} point {@code y} to a destination.
+	 * @param jacobianIn   Jacobian of a derivative. If {@code null}, it is
+	 *                     approximated with finite differences.
+	 * @param tFIn         A field containing operations on a used tensors.
+	 * @param atolIn       Absolute tolerance.
+	 * @param rtolIn       Relative tolerance.
+	 */
+	@SuppressWarnings("unchecked")
+	public Rosenbrock23(T example, Derivative<T> derivativeIn, Jacobian<T> jacobianIn, DoubleTensorField<T> tFIn,
+			double atolIn, double rtolIn) {
+		this.tF = tFIn;
+		this.derivative = derivativeIn;
+		this.jacobian = (jacobianIn == null) ? new FiniteDifferenceJacobian<T>(example, this::evaluate, tF)
+				: jacobianIn;
+		this.atol = atolIn;
+		this.rtol = rtolIn;
+		int n = example.length();
+		jac = new DoubleTensor(2, n);
+		lu = new DoubleLU(n);
+		y = tF.zero(example);
+		yNew = tF.zero(example);
+		f0 = tF.zero(example);
+		f1 = tF.zero(example);
+		f2 = tF.zero(example);
+		dfdt = tF.zero(example);
+		k1 = tF.zero(example);
+		k2 = tF.zero(example);
+		k3 = tF.zero(example);
+		yTmp = tF.zero(example);
+		err = tF.zero(example);
+		terms3 = (T[]) new DoubleTensor[] { k1, k2, k3 };
+		terms6 = (T[]) new DoubleTensor[] { f2, k2, f1, k1, f0, dfdt };
+	}
+
+	/**
+	 * Sets initial conditions.
+	 *
+	 * @param tIn Initial time.
+	 * @param yIn Initial state. Is copied.
+	 * @param h0  Initial step. Non-positive value means it should be guessed.
+	 */
+	public void init(double tIn, T yIn, double h0) {
+		t = tOld = tIn;
+		hDone = 0;
+		tF.assign(y, yIn);
+		evaluate(t, y, f0);
+		h = (h0 > 0) ? h0
+				: DifferentialEquation.initialStep(t, y, f0, 2, atol, rtol, this::evaluate, tF, yTmp, f1);
+		jacobianCurrent = false;
+	}
+
+	/**
+	 * Attempts a single step, not going beyond {@code te}.
+	 *
+	 * @param te Time to stop at.
+	 * @throws IllegalStateException If step size became too small.
+	 * @return If step was accepted and state has advanced.
+	 */
+	public boolean step(double te) throws IllegalStateException {
+		if (Math.abs(h) <= (10 * Math.ulp(t))) {
+			throw new IllegalStateException(String.format("Step size underflow at t=%s", t));
+		}
+		// Dense output of the previous step is lost from now on
+		tOld = t;
+		hDone = 0;
+		boolean last = (t + (1.01d * h)) >= te;
+		if (last) {
+			h = te - t;
+		}
+		if (!jacobianCurrent) {
+			jacobian.apply(t, y, f0, jac);
+			jacobians++;
+			double delta = SQRT_EPS * Math.max(Math.abs(t), Math.abs(h));
+			evaluate(t + delta, y, dfdt);
+			tF.scale(tF.sub(dfdt, f0, dfdt), 1 / delta, dfdt);
+			// Rejected steps are retried from the same point
+			jacobianCurrent = true;
+		}
+		try {
+			lu.factorShifted(jac, h * D);
+		} catch (ArithmeticException e) {
+			rejected++;
+			h /= 2;
+			return false;
+		}
+		// k1 = W^-1 (f0 + h d T)
+		lu.solve(tF.axpy(tF.assign(k1, f0), h * D, dfdt), k1);
+		// k2 = W^-1 (f1 - k1) + k1
+		evaluate(t + (h / 2), tF.axpy(tF.assign(yTmp, y), h / 2, k1), f1);
+		tF.add(lu.solve(tF.sub(f1, k1, k2), k2), k1, k2);
+		tF.axpy(tF.assign(yNew, y), h, k2);
+		evaluate(t + h, yNew, f2);
+		// k3 = W^-1 (f2 - e32 (k2 - f1) - 2 (k1 - f0) + h d T)
+		terms6[0] = f2;
+		terms6[4] = f0;
+		coeffs6[0] = 1;
+		coeffs6[1] = -E32;
+		coeffs6[2] = E32;
+		coeffs6[3] = -2;
+		coeffs6[4] = 2;
+		coeffs6[5] = h * D;
+		lu.solve(tF.linearCombination(k3, coeffs6, terms6), k3);
+		// Error estimation
+		coeffs3[0] = h / 6;
+		coeffs3[1] = -h / 3;
+		coeffs3[2] = h / 6;
+		tF.linearCombination(err, coeffs3, terms3);
+		double errNorm = tF.rmsNorm(err, y, yNew, atol, rtol);
+		if (Double.isNaN(errNorm)) {
+			errNorm = Double.POSITIVE_INFINITY;
+		}
+		if (errNorm <= 1) {
+			accepted++;
+			tOld = t;
+			hDone = h;
+			t = last ? te : (t + h);
+			T tmp = y;
+			y = yNew;
+			yNew = tmp;
+			// First same as last
+			tmp = f0;
+			f0 = f2;
+			f2 = tmp;
+			jacobianCurrent = false;
+			double fac = 1.25d * Math.cbrt(errNorm);
+			h = (fac > 0.2d) ? (h / fac) : (5 * h);
+			return true;
+		}
+		rejected++;
+		h *= Math.max(0.5d, 0.8d / Math.cbrt(errNorm));
+		return false;
+	}
+
+	/**
+	 * Solves equation from {@code tb} to {@code te}.
+	 *
+	 * @param tb Initial time.
+	 * @param te Ending time.
+	 * @param h0 Initial step. Non-positive value means it should be guessed.
+	 * @param y0 Initial state.
+	 * @return A map representing change of a tensor over time, one entry per
+	 *         accepted step.
+	 */
+	public Map<Double, T> solve(double tb, double te, double h0, T y0) {
+		Map<Double, T> res = new LinkedHashMap<Double, T>(0);
+		solve(tb, te, h0, y0, (t, y) -> res.put(t, tF.copy(y)));
+		return res;
+	}
+
+	/**
+	 * Solves equation from {@code tb} to {@code te}, pushing states to a consumer
+	 * as soon as they are calculated.
+	 *
+	 * @param tb       Initial time.
+	 * @param te       Ending time.
+	 * @param h0       Initial step. Non-positive value means it should be guessed.
+	 * @param y0       Initial state.
+	 * @param consumer Receives state after every accepted step, starting with
+	 *                 {@code y0} at {@code tb}.
+	 */
+	public void solve(double tb, double te, double h0, T y0, TrajectoryConsumer<? super T> consumer) {
+		init(tb, y0, h0);
+		consumer.accept(t, y);
+		advance(te, consumer, null);
+	}
+
+	/**
+	 * Continues integration from the current state (set by {@link #init} or
+	 * {@link #restore}) up to {@code te}.
+	 *
+	 * @param te          Ending time.
+	 * @param consumer    Receives state after every accepted step.
+	 * @param checkpoints Writer to pass checkpoints to, when they are due. May be
+	 *                    null.
+	 */
+	public void advance(double te, TrajectoryConsumer<? super T> consumer, CheckpointWriter checkpoints) {
+		while (t < te) {
+			if (step(te)) {
+				consumer.accept(t, y);
+				if ((checkpoints != null) && checkpoints.isDue()) {
+					checkpoints.submit(checkpoint());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Solves equation, reporting states at specified time points only. Internal
+	 * steps are chosen by accuracy, and states between them are obtained from
+	 * the continuous extension of the method.
+	 *
+	 * @param tb       Initial time.
+	 * @param times    Output time points, not decreasing and not less than
+	 *                 {@code tb}.
+	 * @param h0       Initial step. Non-positive value means it should be guessed.
+	 * @param y0       Initial state.
+	 * @param consumer Receives state at every output time point.
+	 * @throws IllegalArgumentException If output times are not sorted or precede
+	 *                                  {@code tb}.
+	 */
+	public void solve(double tb, double[] times, double h0, T y0, TrajectoryConsumer<? super T> consumer)
+			throws IllegalArgumentException {
+		DifferentialEquation.checkTimes(tb, times);
+		if (times.length == 0) {
+			return;
+		}
+		init(tb, y0, h0);
+		int i = 0;
+		while ((i < times.length) && (times[i] == tb)) {
+			consumer.accept(times[i++], y);
+		}
+		advance(times, consumer, null);
+	}
+
+	/**
+	 * Continues integration from the current state (set by {@link #init} or
+	 * {@link #restore}) up to the last output time point, reporting states at
+	 * time points after the current time.
+	 *
+	 * @param times       Output time points, not decreasing. Points not after the
+	 *                    current time are skipped.
+	 * @param consumer    Receives state at every output time point.
+	 * @param checkpoints Writer to pass checkpoints to, when they are due. May be
+	 *                    null.
+	 */
+	public void advance(double[] times, TrajectoryConsumer<? super T> consumer, CheckpointWriter checkpoints) {
+		if (times.length == 0) {
+			return;
+		}
+		T out = tF.zero(y);
+		int i = 0;
+		while ((i < times.length) && (times[i] <= t)) {
+			i++;
+		}
+		final double te = times[times.length - 1];
+		while (i < times.length) {
+			if (step(te)) {
+				while ((i < times.length) && (times[i] <= t)) {
+					consumer.accept(times[i], (times[i] == t) ? y : interpolate(times[i], out));
+					i++;
+				}
+				if ((checkpoints != null) && checkpoints.isDue()) {
+					checkpoints.submit(checkpoint());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves time, state and step size. Jacobian is evaluated anew after every
+	 * accepted step, so there is no other controller state. Can be restored by
+	 * an integrator of the same equation and tolerances.
+	 *
+	 * @return A checkpoint.
+	 */
+	public Checkpoint checkpoint() {
+		return new Checkpoint(Checkpoint.Solver.ROSENBROCK23, 0, t, h, accepted, Checkpoint.values(y));
+	}
+
+	/**
+	 * Continues from a checkpoint, instead of {@link #init}. Further steps are
+	 * exactly the same, as they were in a run checkpoint was made by.
+	 *
+	 * @param checkpoint Checkpoint made by {@link #checkpoint()}.
+	 * @throws IllegalArgumentException If checkpoint was made by another solver,
+	 *                                  or for another state size.
+	 */
+	public void restore(Checkpoint checkpoint) throws IllegalArgumentException {
+		checkpoint.restore(Checkpoint.Solver.ROSENBROCK23, 0, 0, y);
+		t = tOld = checkpoint.t;
+		hDone = 0;
+		h = checkpoint.h;
+		accepted = checkpoint.steps;
+		// Same as the last derivative of a step checkpoint was made after
+		evaluate(t, y, f0);
+		jacobianCurrent = false;
+	}
+
+	/**
+	 * Evaluates continuous extension of the last accepted step. Is 2nd-order
+	 * accurate. Available until the next step attempt.
+	 *
+	 * @param tOut Time point within the last accepted step.
+	 * @param dest Tensor to write state to.
+	 * @throws IllegalArgumentException If time point is outside the last step.
+	 * @return {@code dest}
+	 */
+	public T interpolate(double tOut, T dest) throws IllegalArgumentException {
+		if ((tOut < tOld) || (tOut > t)) {
+			throw new IllegalArgumentException(
+					String.format("Time %s is outside of last step [%s, %s]", tOut, tOld, t));
+		}
+		if (hDone == 0) {
+			return tF.assign(dest, y);
+		}
+		// After a step is accepted, yNew holds previous state
+		double s = (tOut - tOld) / hDone;
+		tF.assign(dest, yNew);
+		tF.axpy(dest, (hDone * s * (1 - s)) / (1 - (2 * D)), k1);
+		return tF.axpy(dest, (hDone * s * (s - (2 * D))) / (1 - (2 * D)), k2);
+	}
+
+	/**
+	 * @return Current time.
+	 */
+	public double getTime() {
+		return t;
+	}
+
+	/**
+	 * @return Current state. Is overwritten by further steps.
+	 */
+	public T getState() {
+		return y;
+	}
+
+	/**
+	 * @return Step size to be attempted next.
+	 */
+	public double getStep() {
+		return h;
+	}
+
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	public long getJacobianEvaluations() {
+		return jacobians;
+	}
+
+	public long getAcceptedSteps() {
+		return accepted;
+	}
+
+	public long getRejectedSteps() {
+		return rejected;
+	}
+
+	private void evaluate(double tIn, T yIn, T dest) {
+		evaluations++;
+		derivative.apply(tIn, yIn, dest);
+	}
+}
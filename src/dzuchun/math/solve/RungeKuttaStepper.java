@@ -0,0 +1,72 @@
+package dzuchun.math.solve;
+
+import dzuchun.math.tensor.Tensor;
+import dzuchun.math.tensor.TensorField;
+
+/**
+ * Classic 4th-order Runge-Kutta stepper, that owns all the intermediate
+ * tensors it needs. Once created, stepping allocates nothing by itself, so
+ * it's as allocation-free as tensor field's in-place operations and the
+ * derivative are.
+ *
+ * @author dzu
+ *
+ * @param <E> Type of elements in tensors.
+ * @param <T> Type of a state tensor.
+ */
+public class RungeKuttaStepper<E, T extends Tensor<E>> {
+	private final TensorField<E, T> tF;
+	private final Derivative<T> derivative;
+	private final T k1, k2, k3, k4, tmpR;
+	private final double[] coeffs = new double[5];
+	private final T[] terms;
+
+	/**
+	 * Creates a new stepper.
+	 *
+	 * @param example      Tensor of the same order and size, as states are.
+	 * @param derivativeIn Function, that writes derivative of a tensor at time
+	 *                     {@code t} point {@code y} to a destination.
+	 * @param tFIn         A field containing operations on a used tensors.
+	 */
+	@SuppressWarnings("unchecked")
+	public RungeKuttaStepper(T example, Derivative<T> derivativeIn, TensorField<E, T> tFIn) {
+		this.tF = tFIn;
+		this.derivative = derivativeIn;
+		this.k1 = tF.zero(example);
+		this.k2 = tF.zero(example);
+		this.k3 = tF.zero(example);
+		this.k4 = tF.zero(example);
+		this.tmpR = tF.zero(example);
+		this.terms = (T[]) new Tensor<?>[] { null, k1, k2, k3, k4 };
+	}
+
+	/**
+	 * Makes a single step.
+	 *
+	 * @param t            Current time.
+	 * @param step         Time step.
+	 * @param currentState State at time {@code t}. Is not modified, unless it's
+	 *                     {@code dest} itself.
+	 * @param dest         Tensor to write state at {@code t + step} to. May be
+	 *                     {@code currentState}.
+	 * @return {@code dest}
+	 */
+	public T step(double t, double step, T currentState, T dest) {
+		derivative.apply(t, currentState, k1);
+		tF.axpy(tF.assign(tmpR, currentState), step / 2, k1);
+		derivative.apply(t + (step / 2), tmpR, k2);
+		tF.axpy(tF.assign(tmpR, currentState), step / 2, k2);
+		derivative.apply(t + (step / 2), tmpR, k3);
+		tF.axpy(tF.assign(tmpR, currentState), step, k3);
+		derivative.apply(t + step, tmpR, k4);
+		// Calculating result: res = current + step*((k1+k4)/6 + (k2+k3)/3) in one pass
+		coeffs[0] = 1;
+		coeffs[1] = coeffs[4] = step / 6;
+		coeffs[2] = coeffs[3] = step / 3;
+		terms[0] = currentState;
+		tF.linearCombination(dest, coeffs, terms);
+		terms[0] = null;
+		return dest;
+	}
+}
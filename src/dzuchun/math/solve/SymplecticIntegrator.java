@@ -0,0 +1,262 @@
+package dzuchun.math.solve;
+
+import dzuchun.math.tensor.Tensor;
+import dzuchun.math.tensor.TensorField;
+
+/**
+ * Fixed-step symplectic integrator for separable Hamiltonian systems
+ * {@code dq/dt = f(t, p)}, {@code dp/dt = g(t, q)}, like a pendulum. A step is
+ * a sequence of drifts {@code q += c[i] * h * f(p)} and kicks
+ * {@code p += d[i] * h * g(q)}. Energy error of such methods stays bounded over
+ * long times instead of drifting, so much larger steps are affordable than
+ * with Runge-Kutta methods.
+ * <p>
+ * A kick reuses the last evaluated {@code g}, if neither time nor position
+ * have changed since, so velocity Verlet costs a single {@code g} evaluation
+ * per step.
+ *
+ * @author dzu
+ *
+ * @param <E> Type of elements in tensors.
+ * @param <T> Type of position and velocity tensors.
+ */
+public class SymplecticIntegrator<E, T extends Tensor<E>> {
+	// Method coefficients. Kept out of the enum, as it can't use it's own
+	// static fields while constants are created
+	private static final double FR_THETA = 1 / (2 - Math.cbrt(2));
+	private static final double PEFRL_XI = 0.1786178958448091d, PEFRL_LAMBDA = -0.2123418310626054d,
+			PEFRL_CHI = -0.06626458266981849d;
+	private static final double Y_W1 = -1.17767998417887d, Y_W2 = 0.235573213359357d,
+			Y_W3 = 0.784513610477560d, Y_W0 = 1 - (2 * (Y_W1 + Y_W2 + Y_W3));
+
+	/**
+	 * Drift-kick sequences of available methods.
+	 */
+	public static enum Scheme {
+		/**
+		 * 2nd-order drift-kick-drift (position Verlet).
+		 */
+		LEAPFROG(2, new double[] { 0.5d, 0.5d }, new double[] { 1.0d, 0.0d }),
+		/**
+		 * 2nd-order kick-drift-kick.
+		 */
+		VELOCITY_VERLET(2, new double[] { 0.0d, 1.0d }, new double[] { 0.5d, 0.5d }),
+		/**
+		 * 4th-order method of Forest and Ruth.
+		 */
+		FOREST_RUTH(4, new double[] { FR_THETA / 2, (1 - FR_THETA) / 2, (1 - FR_THETA) / 2,
+				FR_THETA / 2 }, new double[] { FR_THETA, 1 - (2 * FR_THETA), FR_THETA, 0 }),
+		/**
+		 * 4th-order position-extended Forest-Ruth-like method of Omelyan, Mryglod
+		 * and Folk. Costs one more evaluation than {@link #FOREST_RUTH}, but is
+		 * about two orders of magnitude more accurate.
+		 */
+		PEFRL(4,
+				new double[] { PEFRL_XI, PEFRL_CHI, 1 - (2 * (PEFRL_CHI + PEFRL_XI)),
+						PEFRL_CHI, PEFRL_XI },
+				new double[] { (1 - (2 * PEFRL_LAMBDA)) / 2, PEFRL_LAMBDA, PEFRL_LAMBDA,
+						(1 - (2 * PEFRL_LAMBDA)) / 2, 0 }),
+		/**
+		 * 6th-order composition of leapfrogs by Yoshida (solution A).
+		 */
+		YOSHIDA6(6,
+				new double[] { Y_W3 / 2, (Y_W3 + Y_W2) / 2, (Y_W2 + Y_W1) / 2,
+						(Y_W1 + Y_W0) / 2, (Y_W0 + Y_W1) / 2,
+						(Y_W1 + Y_W2) / 2, (Y_W2 + Y_W3) / 2, Y_W3 / 2 },
+				new double[] { Y_W3, Y_W2, Y_W1, Y_W0, Y_W1, Y_W2,
+						Y_W3, 0 });
+
+		public final int order;
+		private final double[] drifts, kicks;
+		/**
+		 * Fraction of a step passed after every drift. Last one is exactly 1, so
+		 * cached {@code dp/dt} matches time of the next step.
+		 */
+		private final double[] times;
+
+		private Scheme(int orderIn, double[] driftsIn, double[] kicksIn) {
+			this.order = orderIn;
+			this.drifts = driftsIn;
+			this.kicks = kicksIn;
+			this.times = new double[drifts.length];
+			double sum = 0;
+			for (int i = 0; i < drifts.length; i++) {
+				sum += drifts[i];
+				times[i] = sum;
+			}
+			times[drifts.length - 1] = 1;
+		}
+	}
+
+	/**
+	 * Receives states of a Hamiltonian system.
+	 *
+	 * @param <T> Type of position and velocity tensors.
+	 */
+	@FunctionalInterface
+	public static interface PhaseConsumer<T> {
+		/**
+		 * @param t Time point.
+		 * @param q Position. Belongs to integrator, so should be copied if stored.
+		 * @param p Velocity. Belongs to integrator, so should be copied if stored.
+		 */
+		void accept(double t, T q, T p);
+	}
+
+	private final Scheme scheme;
+	private final Derivative<T> positionDerivative, velocityDerivative;
+	private final TensorField<E, T> tF;
+	private final T f, g;
+	private double gTime;
+	private boolean gValid;
+	private long evaluations;
+
+	/**
+	 * Creates a new integrator.
+	 *
+	 * @param schemeIn             Method to use.
+	 * @param example              Tensor of the same order and size, as positions
+	 *                             are.
+	 * @param positionDerivativeIn Function, that writes {@code dq/dt} at time
+	 *                             {@code t} and velocity {@code p} to a
+	 *                             destination.
+	 * @param velocityDerivativeIn Function, that writes {@code dp/dt} at time
+	 *                             {@code t} and position {@code q} to a
+	 *                             destination.
+	 * @param tFIn                 A field containing operations on a used
+	 *                             tensors.
+	 */
+	public SymplecticIntegrator(Scheme schemeIn, T example, Derivative<T> positionDerivativeIn,
+			Derivative<T> velocityDerivativeIn, TensorField<E, T> tFIn) {
+		this.scheme = schemeIn;
+		this.positionDerivative = positionDerivativeIn;
+		this.velocityDerivative = velocityDerivativeIn;
+		this.tF = tFIn;
+		f = tF.zero(example);
+		g = tF.zero(example);
+	}
+
+	/**
+	 * Makes a single step, modifying position and velocity in place.
+	 *
+	 * @param t Current time.
+	 * @param h Time step.
+	 * @param q Position at time {@code t}.
+	 * @param p Velocity at time {@code t}.
+	 */
+	public void step(double t, double h, T q, T p) {
+		double tau = t;
+		for (int i = 0; i < scheme.drifts.length; i++) {
+			if (scheme.drifts[i] != 0) {
+				positionDerivative.apply(tau, p, f);
+				evaluations++;
+				tF.axpy(q, scheme.drifts[i] * h, f);
+				tau = t + (scheme.times[i] * h);
+				gValid = false;
+			}
+			if (scheme.kicks[i] != 0) {
+				if (!gValid || (gTime != tau)) {
+					velocityDerivative.apply(tau, q, g);
+					evaluations++;
+					gTime = tau;
+					gValid = true;
+				}
+				tF.axpy(p, scheme.kicks[i] * h, g);
+			}
+		}
+	}
+
+	/**
+	 * Integrates from {@code tb} to {@code te} with constant step. Last step is
+	 * shortened to hit {@code te} exactly.
+	 *
+	 * @param tb       Initial time.
+	 * @param te       Ending time.
+	 * @param h        Time step.
+	 * @param q        Initial position. Is modified in place.
+	 * @param p        Initial velocity. Is modified in place.
+	 * @param consumer Receives state after every step, starting with the initial
+	 *                 one at {@code tb}. May be {@code null}.
+	 */
+	public void solve(double tb, double te, double h, T q, T p, PhaseConsumer<? super T> consumer) {
+		solve(tb, te, h, q, p, consumer, null, null);
+	}
+
+	/**
+	 * Same as {@link #solve(double, double, double, Tensor, Tensor, PhaseConsumer)},
+	 * but saves checkpoints periodically, and may continue from one. Continued
+	 * run produces exactly the same states, as an uninterrupted one would.
+	 *
+	 * @param tb          Initial time.
+	 * @param te          Ending time.
+	 * @param h           Time step.
+	 * @param q           Initial position. Is modified in place. Must be a
+	 *                    {@link dzuchun.math.tensor.DoubleTensor}.
+	 * @param p           Initial velocity. Is modified in place. Must be a
+	 *                    {@link dzuchun.math.tensor.DoubleTensor}.
+	 * @param consumer    Receives state after every step, starting with the
+	 *                    initial one at {@code tb}, or with the first state after
+	 *                    {@code resume}. May be {@code null}.
+	 * @param resume      Checkpoint to continue from, or null to start at
+	 *                    {@code tb}. Overwrites {@code q} and {@code p}.
+	 * @param checkpoints Writer to pass checkpoints to, or null.
+	 * @throws IllegalArgumentException      If checkpoint was made by another
+	 *                                       solver or scheme, for another state
+	 *                                       size, or with another {@code tb} or
+	 *                                       {@code h}.
+	 * @throws UnsupportedOperationException If checkpoints are requested, and
+	 *                                       tensors are not
+	 *                                       {@link dzuchun.math.tensor.DoubleTensor}s.
+	 */
+	public void solve(double tb, double te, double h, T q, T p, PhaseConsumer<? super T> consumer,
+			Checkpoint resume, CheckpointWriter checkpoints)
+			throws IllegalArgumentException, UnsupportedOperationException {
+		if (checkpoints != null) {
+			Checkpoint.checkSupported(q, p);
+		}
+		// Position is not the one cached force was evaluated at
+		gValid = false;
+		double t = tb, next;
+		long first = 1;
+		if (resume == null) {
+			if (consumer != null) {
+				consumer.accept(tb, q, p);
+			}
+		} else {
+			// State at the checkpoint was reported already
+			resume.checkGrid(Checkpoint.Solver.SYMPLECTIC, scheme.ordinal(), tb, h);
+			resume.restore(Checkpoint.Solver.SYMPLECTIC, scheme.ordinal(), 1, q, p);
+			t = resume.t;
+			first = resume.steps + 1;
+		}
+		long steps = (long) Math.ceil(((te - tb) / h) - 1.0e-9d);
+		for (long i = first; i <= steps; i++) {
+			next = (i == steps) ? te : (tb + (i * h));
+			step(t, next - t, q, p);
+			t = next;
+			if (consumer != null) {
+				consumer.accept(t, q, p);
+			}
+			if ((checkpoints != null) && checkpoints.isDue()) {
+				checkpoints.submit(new Checkpoint(Checkpoint.Solver.SYMPLECTIC, scheme.ordinal(), t, h, i,
+						Checkpoint.values(q, p), tb));
+			}
+		}
+	}
+
+	/**
+	 * Forgets cached {@code dp/dt}. Must be called if position was changed
+	 * outside of the integrator between {@link #step} calls.
+	 */
+	public void reset() {
+		gValid = false;
+	}
+
+	public Scheme getScheme() {
+		return scheme;
+	}
+
+	public long getEvaluations() {
+		return evaluations;
+	}
+}
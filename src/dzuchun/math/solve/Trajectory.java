@@ -0,0 +1,176 @@
+package dzuchun.math.solve;
+
+import java.util.Arrays;
+
+import dzuchun.math.tensor.DoubleTensor;
+
+/**
+ * Compact storage for a trajectory of {@link DoubleTensor} states. Times are
+ * stored in a primitive array, and every component of a state has a primitive
+ * column of it's own, so a point costs just it's payload. Points must be
+ * appended in order of increasing time, so lookup by time is a binary search
+ * and iteration by index is already ordered.
+ *
+ * @author dzu
+ *
+ */
+public class Trajectory implements TrajectoryConsumer<DoubleTensor> {
+	public final int dimension;
+	private double[] times;
+	private double[][] columns;
+	private int length;
+
+	/**
+	 * Creates an empty trajectory.
+	 *
+	 * @param dimensionIn Number of components in a state.
+	 */
+	public Trajectory(int dimensionIn) {
+		this(dimensionIn, 16);
+	}
+
+	/**
+	 * Creates an empty trajectory.
+	 *
+	 * @param dimensionIn Number of components in a state.
+	 * @param capacity    Number of points to allocate storage for. Storage grows
+	 *                    if needed.
+	 */
+	public Trajectory(int dimensionIn, int capacity) {
+		this.dimension = dimensionIn;
+		capacity = Math.max(capacity, 1);
+		this.times = new double[capacity];
+		this.columns = new double[dimension][capacity];
+	}
+
+	/**
+	 * Appends a point. State is copied.
+	 *
+	 * @throws IllegalArgumentException If state has wrong number of components,
+	 *                                  or time does not increase.
+	 */
+	@Override
+	public void accept(double t, DoubleTensor state) throws IllegalArgumentException {
+		if (state.length() != dimension) {
+			throw new IllegalArgumentException("Number of components in a state is incorrect");
+		}
+		int i = prepareAppend(t);
+		for (int c = 0; c < dimension; c++) {
+			columns[c][i] = state.getValue(c);
+		}
+		length++;
+	}
+
+	/**
+	 * Appends a point.
+	 *
+	 * @param t      Time point.
+	 * @param values Components of a state.
+	 * @throws IllegalArgumentException If wrong number of components is
+	 *                                  specified, or time does not increase.
+	 */
+	public void append(double t, double... values) throws IllegalArgumentException {
+		if (values.length != dimension) {
+			throw new IllegalArgumentException("Number of components in a state is incorrect");
+		}
+		int i = prepareAppend(t);
+		for (int c = 0; c < dimension; c++) {
+			columns[c][i] = values[c];
+		}
+		length++;
+	}
+
+	private int prepareAppend(double t) throws IllegalArgumentException {
+		if ((length > 0) && !(t > times[length - 1])) {
+			throw new IllegalArgumentException(
+					String.format("Time must increase, but %s follows %s", t, times[length - 1]));
+		}
+		if (length == times.length) {
+			int capacity = times.length + (times.length >> 1) + 1;
+			times = Arrays.copyOf(times, capacity);
+			for (int c = 0; c < dimension; c++) {
+				columns[c] = Arrays.copyOf(columns[c], capacity);
+			}
+		}
+		times[length] = t;
+		return length;
+	}
+
+	/**
+	 * @return Number of points.
+	 */
+	public int size() {
+		return length;
+	}
+
+	/**
+	 * @param i Index of a point.
+	 * @return Time of a point.
+	 */
+	public double time(int i) {
+		checkIndex(i);
+		return times[i];
+	}
+
+	/**
+	 * @param i         Index of a point.
+	 * @param component Index of a component.
+	 * @return Component of a state.
+	 */
+	public double get(int i, int component) {
+		checkIndex(i);
+		return columns[component][i];
+	}
+
+	/**
+	 * Writes state of a point to a tensor.
+	 *
+	 * @param i    Index of a point.
+	 * @param dest Tensor to write to.
+	 * @return {@code dest}
+	 */
+	public <T extends DoubleTensor> T getState(int i, T dest) {
+		checkIndex(i);
+		for (int c = 0; c < dimension; c++) {
+			dest.setValue(columns[c][i], c);
+		}
+		return dest;
+	}
+
+	/**
+	 * @param t Time point.
+	 * @return Index of a point with exactly this time, or negative value, as
+	 *         {@link Arrays#binarySearch(double[], int, int, double)} returns.
+	 */
+	public int indexOf(double t) {
+		return Arrays.binarySearch(times, 0, length, t);
+	}
+
+	/**
+	 * @param t Time point.
+	 * @return Index of the last point not later than {@code t}, or {@code -1} if
+	 *         there are none.
+	 */
+	public int floorIndex(double t) {
+		int i = indexOf(t);
+		return (i >= 0) ? i : (-i - 2);
+	}
+
+	/**
+	 * Releases unused storage.
+	 */
+	public void trimToSize() {
+		if (length < times.length) {
+			times = Arrays.copyOf(times, length);
+			for (int c = 0; c < dimension; c++) {
+				columns[c] = Arrays.copyOf(columns[c], length);
+			}
+		}
+	}
+
+	private void checkIndex(int i) throws IndexOutOfBoundsException {
+		if ((i < 0) || (i >= length)) {
+			throw new IndexOutOfBoundsException(String.format("Index %d, size %d", i, length));
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package dzuchun.math.solve;
+
+/**
+ * Receives states of a trajectory as they are produced by a solver, in order of
+ * increasing time.
+ *
+ * @author dzu
+ *
+ * @param <T> Type of a state.
+ */
+@FunctionalInterface
+public interface TrajectoryConsumer<T> {
+
+	/**
+	 * @param t     Time point.
+	 * @param state State at time {@code t}. Belongs to a solver and is
+	 *              overwritten by further steps, so copy it if it should be
+	 *              retained.
+	 */
+	void accept(double t, T state);
+}
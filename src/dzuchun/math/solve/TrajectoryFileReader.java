@@ -0,0 +1,140 @@
+package dzuchun.math.solve;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import dzuchun.math.tensor.DoubleTensor;
+
+/**
+ * Reads trajectories written by {@link TrajectoryFileWriter}. Trajectory blocks
+ * are mapped on first access and read in place, so a file may be bigger than
+ * available memory. Is safe to read from several threads.
+ *
+ * @author dzu
+ *
+ */
+public class TrajectoryFileReader implements Closeable {
+	public final int trajectories;
+	public final int dimension;
+	public final long capacity;
+	private final FileChannel channel;
+	private final long[] lengths;
+	private final AtomicReferenceArray<DoubleBuffer> blockViews;
+
+	/**
+	 * Opens a file and reads it's header.
+	 *
+	 * @param path File to read.
+	 * @throws IOException If file could not be read or is not a trajectory file.
+	 */
+	public TrajectoryFileReader(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, TrajectoryFileWriter.HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if ((header.getInt(0) != TrajectoryFileWriter.MAGIC)
+					|| (header.getInt(4) != TrajectoryFileWriter.VERSION)) {
+				throw new IOException("Not a trajectory file, or unsupported version");
+			}
+			trajectories = header.getInt(8);
+			dimension = header.getInt(12);
+			capacity = header.getLong(16);
+			lengths = new long[trajectories];
+			MappedByteBuffer lengthTable = channel.map(MapMode.READ_ONLY, TrajectoryFileWriter.HEADER_SIZE,
+					TrajectoryFileWriter.dataOffset(trajectories) - TrajectoryFileWriter.HEADER_SIZE);
+			lengthTable.order(ByteOrder.LITTLE_ENDIAN);
+			for (int n = 0; n < trajectories; n++) {
+				lengths[n] = lengthTable.getLong(n * Long.BYTES);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		blockViews = new AtomicReferenceArray<DoubleBuffer>(trajectories);
+	}
+
+	/**
+	 * @param trajectory Index of a trajectory.
+	 * @return Number of points in a trajectory.
+	 */
+	public long length(int trajectory) {
+		return lengths[trajectory];
+	}
+
+	/**
+	 * @param trajectory Index of a trajectory.
+	 * @param i          Index of a point.
+	 * @return Time of a point.
+	 */
+	public double time(int trajectory, long i) {
+		return block(trajectory).get(offset(trajectory, i));
+	}
+
+	/**
+	 * @param trajectory Index of a trajectory.
+	 * @param i          Index of a point.
+	 * @param component  Index of a component.
+	 * @return Component of a state.
+	 */
+	public double get(int trajectory, long i, int component) {
+		return block(trajectory).get(offset(trajectory, i) + 1 + component);
+	}
+
+	/**
+	 * Writes state of a point to a tensor.
+	 *
+	 * @param trajectory Index of a trajectory.
+	 * @param i          Index of a point.
+	 * @param dest       Tensor to write to.
+	 * @return {@code dest}
+	 */
+	public <T extends DoubleTensor> T getState(int trajectory, long i, T dest) {
+		DoubleBuffer block = block(trajectory);
+		int offset = offset(trajectory, i) + 1;
+		for (int c = 0; c < dimension; c++) {
+			dest.setValue(block.get(offset + c), c);
+		}
+		return dest;
+	}
+
+	private int offset(int trajectory, long i) throws IndexOutOfBoundsException {
+		if ((i < 0) || (i >= lengths[trajectory])) {
+			throw new IndexOutOfBoundsException(String.format("Index %d, length %d", i, lengths[trajectory]));
+		}
+		return (int) (i * (dimension + 1));
+	}
+
+	private DoubleBuffer block(int trajectory) {
+		DoubleBuffer res = blockViews.get(trajectory);
+		return (res == null) ? mapBlock(trajectory) : res;
+	}
+
+	private synchronized DoubleBuffer mapBlock(int trajectory) {
+		if (blockViews.get(trajectory) == null) {
+			long size = TrajectoryFileWriter.blockSize(dimension, capacity);
+			try {
+				blockViews.set(trajectory,
+						channel.map(MapMode.READ_ONLY,
+								TrajectoryFileWriter.dataOffset(trajectories) + (trajectory * size), size)
+								.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return blockViews.get(trajectory);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
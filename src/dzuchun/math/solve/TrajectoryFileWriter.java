@@ -0,0 +1,189 @@
+package dzuchun.math.solve;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import dzuchun.math.tensor.DoubleTensor;
+
+/**
+ * Writes many trajectories to a memory-mapped file of fixed layout, readable
+ * with {@link TrajectoryFileReader}. Every trajectory has a block of it's own,
+ * big enough for {@code capacity} points, so different trajectories may be
+ * written concurrently and in any order. A single trajectory should be written
+ * by one thread at a time.
+ * <p>
+ * Layout (little-endian):
+ * <ul>
+ * <li>header, {@value #HEADER_SIZE} bytes: magic, version, number of
+ * trajectories, dimension (ints), capacity (long);</li>
+ * <li>number of points written, a long per trajectory;</li>
+ * <li>trajectory blocks, {@code capacity} points each, a point being time
+ * followed by {@code dimension} components (doubles).</li>
+ * </ul>
+ *
+ * @author dzu
+ *
+ */
+public class TrajectoryFileWriter implements Closeable {
+	static final int MAGIC = 0x46444554; // "FDET"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+
+	public final int trajectories;
+	public final int dimension;
+	public final long capacity;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] blocks;
+	private final DoubleBuffer[] blockViews;
+	private final long[] lengths;
+
+	/**
+	 * Creates (or truncates) a file and allocates space for all the trajectories.
+	 *
+	 * @param path           File to write to.
+	 * @param trajectoriesIn Number of trajectories.
+	 * @param dimensionIn    Number of components in a state.
+	 * @param capacityIn     Maximal number of points in a trajectory.
+	 * @throws IOException              If file could not be created or mapped.
+	 * @throws IllegalArgumentException If a trajectory block does not fit 2GB.
+	 */
+	public TrajectoryFileWriter(Path path, int trajectoriesIn, int dimensionIn, long capacityIn)
+			throws IOException, IllegalArgumentException {
+		if ((capacityIn * (dimensionIn + 1) * Double.BYTES) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Trajectory block must not exceed 2GB");
+		}
+		this.trajectories = trajectoriesIn;
+		this.dimension = dimensionIn;
+		this.capacity = capacityIn;
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long dataOffset = TrajectoryFileWriter.dataOffset(trajectories);
+		// Allocating the whole file at once, blocks that are never written stay sparse
+		channel.write(ByteBuffer.allocate(1),
+				(dataOffset + (trajectories * TrajectoryFileWriter.blockSize(dimension, capacity))) - 1);
+		header = channel.map(MapMode.READ_WRITE, 0, dataOffset);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0, MAGIC);
+		header.putInt(4, VERSION);
+		header.putInt(8, trajectories);
+		header.putInt(12, dimension);
+		header.putLong(16, capacity);
+		blocks = new MappedByteBuffer[trajectories];
+		blockViews = new DoubleBuffer[trajectories];
+		lengths = new long[trajectories];
+	}
+
+	static long dataOffset(int trajectories) {
+		return HEADER_SIZE + ((long) trajectories * Long.BYTES);
+	}
+
+	static long blockSize(int dimension, long capacity) {
+		return capacity * (dimension + 1) * Double.BYTES;
+	}
+
+	/**
+	 * Appends a point to a trajectory.
+	 *
+	 * @param trajectory Index of a trajectory.
+	 * @param t          Time point.
+	 * @param values     Components of a state.
+	 * @throws IOException               If block could not be mapped.
+	 * @throws IllegalArgumentException  If wrong number of components is
+	 *                                   specified.
+	 * @throws IndexOutOfBoundsException If trajectory is full.
+	 */
+	public void append(int trajectory, double t, double... values)
+			throws IOException, IllegalArgumentException, IndexOutOfBoundsException {
+		if (values.length != dimension) {
+			throw new IllegalArgumentException("Number of components in a state is incorrect");
+		}
+		DoubleBuffer block = prepareAppend(trajectory);
+		int offset = (int) (lengths[trajectory] * (dimension + 1));
+		block.put(offset, t);
+		for (int c = 0; c < dimension; c++) {
+			block.put(offset + 1 + c, values[c]);
+		}
+		finishAppend(trajectory);
+	}
+
+	/**
+	 * Creates a consumer, appending solver's states to a trajectory.
+	 *
+	 * @param trajectory Index of a trajectory.
+	 * @return A consumer. Throws {@link UncheckedIOException} if block
+	 *         could not be mapped.
+	 */
+	public TrajectoryConsumer<DoubleTensor> consumer(int trajectory) {
+		return (t, state) -> {
+			if (state.length() != dimension) {
+				throw new IllegalArgumentException("Number of components in a state is incorrect");
+			}
+			DoubleBuffer block;
+			try {
+				block = prepareAppend(trajectory);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			int offset = (int) (lengths[trajectory] * (dimension + 1));
+			block.put(offset, t);
+			for (int c = 0; c < dimension; c++) {
+				block.put(offset + 1 + c, state.getValue(c));
+			}
+			finishAppend(trajectory);
+		};
+	}
+
+	private DoubleBuffer prepareAppend(int trajectory) throws IOException, IndexOutOfBoundsException {
+		if (lengths[trajectory] == capacity) {
+			throw new IndexOutOfBoundsException(String.format("Trajectory %d is full", trajectory));
+		}
+		DoubleBuffer res = blockViews[trajectory];
+		return (res == null) ? mapBlock(trajectory) : res;
+	}
+
+	private void finishAppend(int trajectory) {
+		header.putLong(HEADER_SIZE + (trajectory * Long.BYTES), ++lengths[trajectory]);
+	}
+
+	private synchronized DoubleBuffer mapBlock(int trajectory) throws IOException {
+		if (blockViews[trajectory] == null) {
+			long size = TrajectoryFileWriter.blockSize(dimension, capacity);
+			blocks[trajectory] = channel.map(MapMode.READ_WRITE,
+					TrajectoryFileWriter.dataOffset(trajectories) + (trajectory * size), size);
+			blockViews[trajectory] = blocks[trajectory].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		}
+		return blockViews[trajectory];
+	}
+
+	/**
+	 * @param trajectory Index of a trajectory.
+	 * @return Number of points written to a trajectory.
+	 */
+	public long length(int trajectory) {
+		return lengths[trajectory];
+	}
+
+	/**
+	 * Flushes everything to the disk and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		for (MappedByteBuffer block : blocks) {
+			if (block != null) {
+				block.force();
+			}
+		}
+		header.force();
+		channel.close();
+	}
+}
@@ -0,0 +1,204 @@
+package dzuchun.math.tensor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Precomputed flat offsets for a fold of two tensors. Component {@code r} of a
+ * result is a sum over {@code s} of products of
+ * {@code t1[base1[r] + sum1[s]]} and {@code t2[base2[r] + sum2[s]]}, so a fold
+ * kernel needs no index arrays at all. Plans are cached by order of tensors,
+ * their size and fold indexes. Least recently used plans are evicted once
+ * cached ones hold more than 2^22 offsets (16 MiB). Plans larger than a quarter
+ * of that are not cached at all, as building one costs about as much as a
+ * single fold with it.
+ *
+ * @author dzu
+ *
+ */
+final class ContractionPlan {
+	private static final int CACHE_BUDGET = 1 << 22;
+	// Access-ordered, guarded by itself
+	private static final LinkedHashMap<Key, ContractionPlan> CACHE = new LinkedHashMap<Key, ContractionPlan>(16,
+			0.75f, true);
+	private static long cached;
+
+	/**
+	 * Order of a result.
+	 */
+	final int order;
+	final int[] base1, base2;
+	final int[] sum1, sum2;
+
+	private ContractionPlan(int order1, int order2, int size, int[] indexes) throws IllegalArgumentException {
+		if ((indexes.length % 2) != 0) {
+			throw new IllegalArgumentException("Fold indexes must come in pairs");
+		}
+		int rank = indexes.length / 2;
+		boolean[] t1Folded = ContractionPlan.folded(order1, indexes, 0, rank);
+		boolean[] t2Folded = ContractionPlan.folded(order2, indexes, rank, rank * 2);
+		int[] t1Strides = ContractionPlan.strides(order1, size);
+		int[] t2Strides = ContractionPlan.strides(order2, size);
+		this.order = (order1 + order2) - (rank * 2);
+		// Result index is t1's free indexes followed by t2's ones
+		int[] resStrides1 = new int[order];
+		int[] resStrides2 = new int[order];
+		int pos = 0;
+		for (int i = 0; i < order1; i++) {
+			if (!t1Folded[i]) {
+				resStrides1[pos++] = t1Strides[i];
+			}
+		}
+		for (int i = 0; i < order2; i++) {
+			if (!t2Folded[i]) {
+				resStrides2[pos++] = t2Strides[i];
+			}
+		}
+		int[] sumStrides1 = new int[rank];
+		int[] sumStrides2 = new int[rank];
+		for (int i = 0; i < rank; i++) {
+			sumStrides1[i] = t1Strides[indexes[i]];
+			sumStrides2[i] = t2Strides[indexes[rank + i]];
+		}
+		int resLength = (int) Math.pow(size, order);
+		base1 = new int[resLength];
+		base2 = new int[resLength];
+		ContractionPlan.offsets(size, resStrides1, resStrides2, base1, base2);
+		int sumLength = (int) Math.pow(size, rank);
+		sum1 = new int[sumLength];
+		sum2 = new int[sumLength];
+		ContractionPlan.offsets(size, sumStrides1, sumStrides2, sum1, sum2);
+	}
+
+	/**
+	 * Returns a (cached) plan.
+	 *
+	 * @param order1  Order of the first tensor.
+	 * @param order2  Order of the second tensor.
+	 * @param size    Size of both tensors.
+	 * @param indexes Fold indexes, as {@link TensorField#fold} takes them.
+	 * @throws IllegalArgumentException If indexes are out of range or repeat for
+	 *                                  the same tensor.
+	 * @return A plan.
+	 */
+	static ContractionPlan of(int order1, int order2, int size, int... indexes) throws IllegalArgumentException {
+		Key key = new Key(order1, order2, size, indexes);
+		ContractionPlan res;
+		synchronized (CACHE) {
+			res = CACHE.get(key);
+		}
+		if (res != null) {
+			return res;
+		}
+		// Built outside of the lock, as it may take a while
+		res = new ContractionPlan(order1, order2, size, indexes);
+		long footprint = res.footprint();
+		if (footprint > (CACHE_BUDGET / 4)) {
+			return res;
+		}
+		synchronized (CACHE) {
+			ContractionPlan other = CACHE.get(key);
+			if (other != null) {
+				return other;
+			}
+			CACHE.put(key, res);
+			cached += footprint;
+			Iterator<ContractionPlan> eldest = CACHE.values().iterator();
+			while (cached > CACHE_BUDGET) {
+				cached -= eldest.next().footprint();
+				eldest.remove();
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return Number of offsets plan holds.
+	 */
+	private long footprint() {
+		return ((long) base1.length + sum1.length) * 2;
+	}
+
+	private static boolean[] folded(int order, int[] indexes, int from, int to) throws IllegalArgumentException {
+		boolean[] res = new boolean[order];
+		for (int i = from; i < to; i++) {
+			if ((indexes[i] < 0) || (indexes[i] >= order)) {
+				throw new IllegalArgumentException(String.format("Fold index %d is out of range", indexes[i]));
+			}
+			if (res[indexes[i]]) {
+				throw new IllegalArgumentException(String.format("Fold index %d repeats", indexes[i]));
+			}
+			res[indexes[i]] = true;
+		}
+		return res;
+	}
+
+	/**
+	 * @return Flat strides of tensor's indexes, last index changing fastest (as
+	 *         {@link Tensor#getInternalIndex} assumes).
+	 */
+	private static int[] strides(int order, int size) {
+		int[] res = new int[order];
+		int prefix = 1;
+		for (int i = order - 1; i >= 0; i--) {
+			res[i] = prefix;
+			prefix *= size;
+		}
+		return res;
+	}
+
+	/**
+	 * Walks all multi-indexes (last one changing fastest), writing flat offsets
+	 * for two sets of strides.
+	 */
+	private static void offsets(int size, int[] strides1, int[] strides2, int[] dest1, int[] dest2) {
+		int digits = strides1.length;
+		int[] current = new int[digits];
+		int offset1 = 0, offset2 = 0;
+		for (int r = 0; r < dest1.length; r++) {
+			dest1[r] = offset1;
+			dest2[r] = offset2;
+			for (int i = digits - 1; i >= 0; i--) {
+				current[i]++;
+				offset1 += strides1[i];
+				offset2 += strides2[i];
+				if (current[i] != size) {
+					break;
+				}
+				current[i] = 0;
+				offset1 -= strides1[i] * size;
+				offset2 -= strides2[i] * size;
+			}
+		}
+	}
+
+	private static final class Key {
+		private final int order1, order2, size;
+		private final int[] indexes;
+		private final int hash;
+
+		Key(int order1In, int order2In, int sizeIn, int[] indexesIn) {
+			order1 = order1In;
+			order2 = order2In;
+			size = sizeIn;
+			indexes = indexesIn.clone();
+			hash = (((((order1 * 31) + order2) * 31) + size) * 31) + Arrays.hashCode(indexes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return (order1 == other.order1) && (order2 == other.order2) && (size == other.size)
+					&& Arrays.equals(indexes, other.indexes);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package dzuchun.math.tensor;
+
+/**
+ * Elementwise loops over raw {@code double} arrays, used by
+ * {@link DoubleTensorField}. This is a scalar implementation, working on any
+ * JVM. On JDK 17+ a subclass using Vector API ({@code VectorizedDoubleKernels},
+ * built from {@code src-jdk17}) is selected at runtime, if it's present and
+ * {@code jdk.incubator.vector} module is added. Setting
+ * {@code dzuchun.math.vector} system property to {@code false} forces scalar
+ * loops.
+ *
+ * @author dzu
+ *
+ */
+class DoubleKernels {
+	static final DoubleKernels INSTANCE = DoubleKernels.select();
+
+	private static DoubleKernels select() {
+		if (!Boolean.parseBoolean(System.getProperty("dzuchun.math.vector", "true"))) {
+			return new DoubleKernels();
+		}
+		try {
+			return (DoubleKernels) Class.forName("dzuchun.math.tensor.VectorizedDoubleKernels").getDeclaredConstructor()
+					.newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// Java 8 build, or vector module is not available
+			return new DoubleKernels();
+		}
+	}
+
+	/**
+	 * @return Name of implementation in use.
+	 */
+	String name() {
+		return "scalar";
+	}
+
+	/**
+	 * {@code dest = a + b}. Any of arrays may be the same.
+	 */
+	void add(double[] a, double[] b, double[] dest) {
+		for (int i = 0; i < dest.length; i++) {
+			dest[i] = a[i] + b[i];
+		}
+	}
+
+	/**
+	 * {@code dest = a - b}. Any of arrays may be the same.
+	 */
+	void sub(double[] a, double[] b, double[] dest) {
+		for (int i = 0; i < dest.length; i++) {
+			dest[i] = a[i] - b[i];
+		}
+	}
+
+	/**
+	 * {@code dest = -a}. Arrays may be the same.
+	 */
+	void neg(double[] a, double[] dest) {
+		for (int i = 0; i < dest.length; i++) {
+			dest[i] = -a[i];
+		}
+	}
+
+	/**
+	 * {@code dest = s * a}. Arrays may be the same.
+	 */
+	void scale(double[] a, double s, double[] dest) {
+		for (int i = 0; i < dest.length; i++) {
+			dest[i] = a[i] * s;
+		}
+	}
+
+	/**
+	 * {@code y += a * x}. Arrays may be the same.
+	 */
+	void axpy(double a, double[] x, double[] y) {
+		for (int i = 0; i < y.length; i++) {
+			y[i] += a * x[i];
+		}
+	}
+
+	/**
+	 * Sum of {@code a[baseA + offA[s]] * b[baseB + offB[s]]} over all {@code s}.
+	 * Inner loop of a fold.
+	 */
+	double dot(double[] a, int baseA, int[] offA, double[] b, int baseB, int[] offB) {
+		double res = 0.0d;
+		for (int s = 0; s < offA.length; s++) {
+			res += a[baseA + offA[s]] * b[baseB + offB[s]];
+		}
+		return res;
+	}
+}
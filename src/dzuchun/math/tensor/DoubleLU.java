@@ -0,0 +1,161 @@
+package dzuchun.math.tensor;
+
+/**
+ * LU decomposition with partial pivoting of a square matrix, stored as a
+ * rank-2 {@link DoubleTensor} (first index is a row). Once created, factoring
+ * and solving allocate nothing, so a single instance is meant to be reused by
+ * implicit solvers.
+ *
+ * @author dzu
+ *
+ */
+public class DoubleLU {
+	public final int size;
+	private final double[] lu;
+	private final int[] pivots;
+	private boolean factored;
+
+	/**
+	 * @param sizeIn Number of rows of matrices to factor.
+	 */
+	public DoubleLU(int sizeIn) {
+		this.size = sizeIn;
+		lu = new double[size * size];
+		pivots = new int[size];
+	}
+
+	/**
+	 * Factors a matrix. Matrix itself is not modified.
+	 *
+	 * @param a Matrix to factor.
+	 * @throws IllegalArgumentException If matrix is not of rank 2 or of wrong
+	 *                                  size.
+	 * @throws ArithmeticException      If matrix is singular or not finite.
+	 * @return This decomposition.
+	 */
+	public DoubleLU factor(DoubleTensor a) throws IllegalArgumentException, ArithmeticException {
+		checkMatrix(a);
+		System.arraycopy(a.values, 0, lu, 0, lu.length);
+		return decompose();
+	}
+
+	/**
+	 * Factors {@code I - c * a}, that is an iteration matrix of implicit methods.
+	 * Matrix itself is not modified.
+	 *
+	 * @param a Matrix, usually a Jacobian.
+	 * @param c Scale of a matrix.
+	 * @throws IllegalArgumentException If matrix is not of rank 2 or of wrong
+	 *                                  size.
+	 * @throws ArithmeticException      If resulting matrix is singular.
+	 * @return This decomposition.
+	 */
+	public DoubleLU factorShifted(DoubleTensor a, double c) throws IllegalArgumentException, ArithmeticException {
+		checkMatrix(a);
+		for (int i = 0; i < lu.length; i++) {
+			lu[i] = -c * a.values[i];
+		}
+		for (int i = 0; i < size; i++) {
+			lu[(i * size) + i] += 1;
+		}
+		return decompose();
+	}
+
+	private void checkMatrix(DoubleTensor a) throws IllegalArgumentException {
+		if ((a.order != 2) || (a.size != size)) {
+			throw new IllegalArgumentException("Matrix does not match decomposition size");
+		}
+		factored = false;
+	}
+
+	private DoubleLU decompose() throws ArithmeticException {
+		int p, rowK, rowI;
+		double max, tmp, pivot;
+		for (int k = 0; k < size; k++) {
+			// Searching for pivot
+			p = k;
+			max = Math.abs(lu[(k * size) + k]);
+			for (int i = k + 1; i < size; i++) {
+				tmp = Math.abs(lu[(i * size) + k]);
+				if (tmp > max) {
+					max = tmp;
+					p = i;
+				}
+			}
+			if (!(max > 0)) {
+				throw new ArithmeticException("Matrix is singular");
+			}
+			pivots[k] = p;
+			if (p != k) {
+				for (int j = 0; j < size; j++) {
+					tmp = lu[(k * size) + j];
+					lu[(k * size) + j] = lu[(p * size) + j];
+					lu[(p * size) + j] = tmp;
+				}
+			}
+			// Eliminating
+			rowK = k * size;
+			pivot = lu[rowK + k];
+			for (int i = k + 1; i < size; i++) {
+				rowI = i * size;
+				tmp = (lu[rowI + k] /= pivot);
+				if (tmp != 0) {
+					for (int j = k + 1; j < size; j++) {
+						lu[rowI + j] -= tmp * lu[rowK + j];
+					}
+				}
+			}
+		}
+		factored = true;
+		return this;
+	}
+
+	/**
+	 * Solves {@code A x = b} for the last factored matrix {@code A}.
+	 *
+	 * @param <T>  Type of a vector.
+	 * @param b    Right-hand side, rank-1 tensor.
+	 * @param dest Tensor to write solution to. May be {@code b}.
+	 * @throws IllegalArgumentException If vectors are of wrong size.
+	 * @throws IllegalStateException    If no matrix was factored.
+	 * @return {@code dest}
+	 */
+	public <T extends DoubleTensor> T solve(DoubleTensor b, T dest) throws IllegalArgumentException,
+			IllegalStateException {
+		if (!factored) {
+			throw new IllegalStateException("No matrix factored");
+		}
+		if ((b.values.length != size) || (dest.values.length != size)) {
+			throw new IllegalArgumentException("Vector does not match decomposition size");
+		}
+		double[] x = dest.values;
+		if (x != b.values) {
+			System.arraycopy(b.values, 0, x, 0, size);
+		}
+		double tmp;
+		// Forward substitution with unit lower triangle, applying row swaps
+		for (int i = 0; i < size; i++) {
+			if (pivots[i] != i) {
+				tmp = x[i];
+				x[i] = x[pivots[i]];
+				x[pivots[i]] = tmp;
+			}
+		}
+		for (int i = 1; i < size; i++) {
+			tmp = x[i];
+			for (int j = 0; j < i; j++) {
+				tmp -= lu[(i * size) + j] * x[j];
+			}
+			x[i] = tmp;
+		}
+		// Backward substitution with upper triangle
+		for (int i = size - 1; i >= 0; i--) {
+			tmp = x[i];
+			for (int j = i + 1; j < size; j++) {
+				tmp -= lu[(i * size) + j] * x[j];
+			}
+			x[i] = tmp / lu[(i * size) + i];
+		}
+		return dest;
+	}
+}
@@ -0,0 +1,125 @@
+package dzuchun.math.tensor;
+
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A tensor, that stores it's components in a primitive {@code double} array.
+ * Boxed {@link Tensor} accessors still work, but are meant for compatibility
+ * only: use {@link DoubleTensorField} operations and {@code getValue}/
+ * {@code setValue} methods to avoid boxing.
+ *
+ * @author dzu
+ *
+ */
+public class DoubleTensor extends Tensor<Double> {
+	protected double[] values;
+
+	/**
+	 * Creates a new zero tensor.
+	 *
+	 * @param orderIn Order of a tensor.
+	 * @param sizeIn  Size of a tensor.
+	 */
+	public DoubleTensor(int orderIn, int sizeIn) {
+		super(orderIn, sizeIn);
+		values = new double[(int) Math.pow(size, order)];
+	}
+
+	/**
+	 * Creates a new tensor object. Specified array is linked, not copied.
+	 *
+	 * @param orderIn  Order of a tensor.
+	 * @param sizeIn   Size of a tensor.
+	 * @param valuesIn Array of coordinates.
+	 */
+	public DoubleTensor(int orderIn, int sizeIn, double... valuesIn) {
+		super(orderIn, sizeIn);
+		if (valuesIn.length != (int) Math.pow(size, order)) {
+			throw new IllegalArgumentException("Number of components specified for a tensor is incorrect");
+		}
+		values = valuesIn;
+	}
+
+	/**
+	 * Creates a new tensor, generating every component from it's index.
+	 *
+	 * @param orderIn   Order of a tensor.
+	 * @param sizeIn    Size of a tensor.
+	 * @param generator Component generator. Index array passed is reused, so
+	 *                  should not be stored.
+	 */
+	public DoubleTensor(int orderIn, int sizeIn, ToDoubleFunction<int[]> generator) {
+		this(orderIn, sizeIn, generator, false);
+	}
+
+	/**
+	 * Creates a new tensor, generating every component from it's index.
+	 *
+	 * @param orderIn   Order of a tensor.
+	 * @param sizeIn    Size of a tensor.
+	 * @param generator Component generator. Index array passed is reused, so
+	 *                  should not be stored.
+	 * @param parallel  If large tensors may be generated in parallel (generator
+	 *                  should be thread-safe then).
+	 */
+	public DoubleTensor(int orderIn, int sizeIn, ToDoubleFunction<int[]> generator, boolean parallel) {
+		this(orderIn, sizeIn);
+		double[] valuesIn = values;
+		IndexIterator.forEach(order, size, parallel,
+				(index, offset) -> valuesIn[offset] = generator.applyAsDouble(index));
+	}
+
+	/**
+	 * Creates unlinked copy of a tensor.
+	 *
+	 * @param t Tensor to copy.
+	 */
+	public DoubleTensor(DoubleTensor t) {
+		this(t.order, t.size, Arrays.copyOf(t.values, t.values.length));
+	}
+
+	/**
+	 * @return Number of components.
+	 */
+	public int length() {
+		return this.values.length;
+	}
+
+	public double getValue(int d) {
+		return this.values[d];
+	}
+
+	public void setValue(double value, int d) {
+		this.values[d] = value;
+	}
+
+	public double getValueAt(int... indexes) {
+		if (indexes.length != this.order) {
+			throw new IllegalArgumentException();
+		}
+		return this.values[this.getInternalIndex(indexes)];
+	}
+
+	public void setValueAt(double value, int... indexes) {
+		if (indexes.length != this.order) {
+			throw new IllegalArgumentException();
+		}
+		this.values[this.getInternalIndex(indexes)] = value;
+	}
+
+	@Override
+	protected Double getComponent(int d) {
+		return this.values[d];
+	}
+
+	@Override
+	protected void setComponent(Double value, int d) {
+		this.values[d] = value;
+	}
+
+	@Override
+	public String simpleToString() {
+		return Arrays.toString(values);
+	}
+}
@@ -0,0 +1,340 @@
+package dzuchun.math.tensor;
+
+import java.util.Arrays;
+
+import dzuchun.math.Ring;
+
+/**
+ * A field of tensors with primitive {@code double} components. Performs all
+ * the operations on raw arrays, so no components are boxed or allocated
+ * one-by-one.
+ *
+ * @author dzu
+ *
+ * @param <T> Type of a tensor itself.
+ */
+public class DoubleTensorField<T extends DoubleTensor> extends TensorField<Double, T> {
+
+	@FunctionalInterface
+	/**
+	 * Must behave as {@code DoubleTensor::new}.
+	 *
+	 * @author dzu
+	 *
+	 * @param <T> Type of a tensor itself.
+	 */
+	public interface DoubleTensorCreator<T extends DoubleTensor> {
+		T create(int order, int size, double[] values);
+	}
+
+	/**
+	 * Ring of boxed doubles. Boxed doubles are immutable, so write flags are
+	 * ignored. Used by inherited generic operations only.
+	 */
+	private static final Ring<Double> BOXED_RING = new Ring<Double>() {
+
+		@Override
+		public Double mul(Double t1, Double t2, boolean write1, boolean write2) {
+			return t1 * t2;
+		}
+
+		@Override
+		public Double one() {
+			return 1.0d;
+		}
+
+		@Override
+		public Double add(Double t1, Double t2, boolean write1, boolean write2) {
+			return t1 + t2;
+		}
+
+		@Override
+		public Double neg(Double t, boolean write) {
+			return -t;
+		}
+
+		@Override
+		public Double scale(Double t, double scalar, boolean write) {
+			return t * scalar;
+		}
+
+		@Override
+		public Double zero() {
+			return 0.0d;
+		}
+
+		@Override
+		public Double add(Double t1, Double t2, Double dest) {
+			return t1 + t2;
+		}
+
+		@Override
+		public Double sub(Double t1, Double t2, Double dest) {
+			return t1 - t2;
+		}
+
+		@Override
+		public Double neg(Double t, Double dest) {
+			return -t;
+		}
+
+		@Override
+		public Double scale(Double t, double scalar, Double dest) {
+			return t * scalar;
+		}
+
+		@Override
+		public Double mul(Double t1, Double t2, Double dest) {
+			return t1 * t2;
+		}
+
+		@Override
+		public Double assign(Double dest, Double src) {
+			return src;
+		}
+	};
+
+	/**
+	 * Elementwise loops, vectorized if possible.
+	 */
+	private static final DoubleKernels KERNELS = DoubleKernels.INSTANCE;
+
+	private final DoubleTensorCreator<T> creator;
+
+	public DoubleTensorField(DoubleTensorCreator<T> creatorIn) {
+		super(BOXED_RING, new Double[1], d -> d, (o, s, cF, comp) -> creatorIn.create(o, s, unbox(comp)), Math::abs);
+		this.creator = creatorIn;
+	}
+
+	private static double[] unbox(Double[] components) {
+		double[] res = new double[components.length];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = components[i];
+		}
+		return res;
+	}
+
+	private static void checkRank(DoubleTensor t1, DoubleTensor t2) throws IllegalArgumentException {
+		if ((t1.order != t2.order) || (t1.size != t2.size)) {
+			throw (new IllegalArgumentException("Tensors do not match in rank!"));
+		}
+	}
+
+	@Override
+	/**
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size.
+	 */
+	public T add(T t1, T t2, boolean write1, boolean write2) throws IllegalArgumentException {
+		checkRank(t1, t2);
+		double[] v1 = t1.values, v2 = t2.values;
+		if (write1) {
+			KERNELS.add(v1, v2, v1);
+			if (write2) {
+				System.arraycopy(v1, 0, v2, 0, v1.length);
+			}
+			return t1;
+		}
+		if (write2) {
+			KERNELS.add(v1, v2, v2);
+			return t2;
+		}
+		return add(t1, t2, allocate(t1.order, t1.size));
+	}
+
+	@Override
+	/**
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size.
+	 */
+	public T sub(T t1, T t2, boolean write1, boolean write2) throws IllegalArgumentException {
+		checkRank(t1, t2);
+		double[] v1 = t1.values, v2 = t2.values;
+		if (write1) {
+			KERNELS.sub(v1, v2, v1);
+			if (write2) {
+				System.arraycopy(v1, 0, v2, 0, v1.length);
+			}
+			return t1;
+		}
+		if (write2) {
+			KERNELS.sub(v1, v2, v2);
+			return t2;
+		}
+		return sub(t1, t2, allocate(t1.order, t1.size));
+	}
+
+	@Override
+	public T neg(T t, boolean write) {
+		double[] v = t.values;
+		if (write) {
+			KERNELS.neg(v, v);
+			return t;
+		}
+		return neg(t, allocate(t.order, t.size));
+	}
+
+	@Override
+	public T scale(T t, double scalar, boolean write) {
+		double[] v = t.values;
+		if (write) {
+			KERNELS.scale(v, scalar, v);
+			return t;
+		}
+		return scale(t, scalar, allocate(t.order, t.size));
+	}
+
+	@Override
+	public T add(T t1, T t2, T dest) throws IllegalArgumentException {
+		checkRank(t1, t2);
+		checkRank(t1, dest);
+		KERNELS.add(t1.values, t2.values, dest.values);
+		return dest;
+	}
+
+	@Override
+	public T sub(T t1, T t2, T dest) throws IllegalArgumentException {
+		checkRank(t1, t2);
+		checkRank(t1, dest);
+		KERNELS.sub(t1.values, t2.values, dest.values);
+		return dest;
+	}
+
+	@Override
+	public T neg(T t, T dest) throws IllegalArgumentException {
+		checkRank(t, dest);
+		KERNELS.neg(t.values, dest.values);
+		return dest;
+	}
+
+	@Override
+	public T scale(T t, double scalar, T dest) throws IllegalArgumentException {
+		checkRank(t, dest);
+		KERNELS.scale(t.values, scalar, dest.values);
+		return dest;
+	}
+
+	@Override
+	public T axpy(T y, double a, T x) throws IllegalArgumentException {
+		checkRank(y, x);
+		KERNELS.axpy(a, x.values, y.values);
+		return y;
+	}
+
+	@Override
+	protected void combine(T dest, double[] coeffs, Tensor<Double>[] tensors) {
+		double[] res = dest.values;
+		double tmp;
+		for (int i = 0; i < res.length; i++) {
+			tmp = coeffs[0] * ((DoubleTensor) tensors[0]).values[i];
+			for (int j = 1; j < coeffs.length; j++) {
+				tmp += coeffs[j] * ((DoubleTensor) tensors[j]).values[i];
+			}
+			res[i] = tmp;
+		}
+	}
+
+	@Override
+	public T copy(T t) {
+		T res = fromPool(t.order, t.size);
+		if (res == null) {
+			return creator.create(t.order, t.size, Arrays.copyOf(t.values, t.values.length));
+		}
+		System.arraycopy(t.values, 0, res.values, 0, t.values.length);
+		return res;
+	}
+
+	@Override
+	public T assign(T dest, T src) throws IllegalArgumentException {
+		checkRank(dest, src);
+		if (dest.values != src.values) {
+			System.arraycopy(src.values, 0, dest.values, 0, src.values.length);
+		}
+		return dest;
+	}
+
+	@Override
+	public double rmsNorm(T t, T ref1, T ref2, double atol, double rtol) {
+		double[] v = t.values, r1 = ref1.values, r2 = ref2.values;
+		double sum = 0, tmp;
+		for (int i = 0; i < v.length; i++) {
+			tmp = v[i] / (atol + (rtol * Math.max(Math.abs(r1[i]), Math.abs(r2[i]))));
+			sum += tmp * tmp;
+		}
+		return Math.sqrt(sum / v.length);
+	}
+
+	@Override
+	public double diffNorm(T t1, T t2, double atol, double rtol, boolean max) throws IllegalArgumentException {
+		checkRank(t1, t2);
+		double[] v1 = t1.values, v2 = t2.values;
+		double res = 0, tmp;
+		for (int i = 0; i < v1.length; i++) {
+			tmp = Math.abs(v1[i] - v2[i]) / (atol + (rtol * Math.max(Math.abs(v1[i]), Math.abs(v2[i]))));
+			res = max ? Math.max(res, tmp) : (res + (tmp * tmp));
+		}
+		return max ? res : Math.sqrt(res / v1.length);
+	}
+
+	@Override
+	public double diffNorm(T t1, T t2, double[] atol, double[] rtol, boolean max) throws IllegalArgumentException {
+		checkRank(t1, t2);
+		checkTolerances(t1.values.length, atol, rtol);
+		double[] v1 = t1.values, v2 = t2.values;
+		double res = 0, tmp;
+		for (int i = 0; i < v1.length; i++) {
+			tmp = Math.abs(v1[i] - v2[i]) / (atol[i] + (rtol[i] * Math.max(Math.abs(v1[i]), Math.abs(v2[i]))));
+			res = max ? Math.max(res, tmp) : (res + (tmp * tmp));
+		}
+		return max ? res : Math.sqrt(res / v1.length);
+	}
+
+	@Override
+	public Double squaredDistance(T t1, T t2) throws IllegalArgumentException {
+		checkRank(t1, t2);
+		double[] v1 = t1.values, v2 = t2.values;
+		double res = 0, tmp;
+		for (int i = 0; i < v1.length; i++) {
+			tmp = v1[i] - v2[i];
+			res += tmp * tmp;
+		}
+		return res;
+	}
+
+	@Override
+	public T zero(int order, int size) {
+		T res = fromPool(order, size);
+		if (res == null) {
+			return creator.create(order, size, new double[(int) Math.pow(size, order)]);
+		}
+		Arrays.fill(res.values, 0.0d);
+		return res;
+	}
+
+	/**
+	 * @return A tensor of specified shape, holding arbitrary components.
+	 */
+	private T allocate(int order, int size) {
+		T res = fromPool(order, size);
+		return (res == null) ? creator.create(order, size, new double[(int) Math.pow(size, order)]) : res;
+	}
+
+	@Override
+	/**
+	 * Return Fold of a specified tensors. Result is a plain {@link DoubleTensor},
+	 * just like {@link TensorField#fold} returns plain {@link Tensor}.
+	 */
+	@SuppressWarnings("unchecked")
+	public T fold(T t1, T t2, int... indexes) {
+		if (t1.size != t2.size) {
+			throw new IllegalArgumentException("Tensors differ in size!");
+		}
+		ContractionPlan plan = ContractionPlan.of(t1.order, t2.order, t1.size, indexes);
+		double[] resValues = new double[plan.base1.length];
+		double[] v1 = t1.values, v2 = t2.values;
+		for (int r = 0; r < resValues.length; r++) {
+			resValues[r] = KERNELS.dot(v1, plan.base1[r], plan.sum1, v2, plan.base2[r], plan.sum2);
+		}
+		return (T) new DoubleTensor(plan.order, t1.size, resValues);
+	}
+}
@@ -2,51 +2,141 @@ package dzuchun.math.tensor;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
+/**
+ * Iterates over all multi-indexes of a given number of indexes, last one
+ * changing fastest. Besides {@link Iterator} methods, that copy an index on
+ * every call, works as a cursor: {@link #advance()} moves to the next index in
+ * place, {@link #index()} returns reused index array and {@link #offset()} -
+ * corresponding flat offset.
+ *
+ * @author dzu
+ *
+ */
 public class IndexIterator implements Iterator<int[]> {
+	/**
+	 * Minimal number of positions, {@link #forEach} walks in parallel.
+	 */
+	public static final int PARALLEL_THRESHOLD = 1 << 14;
 
-	private final int indexes, size;
-	private int[] current;
+	@FunctionalInterface
+	public static interface IndexConsumer {
+		/**
+		 * @param index  Current index. Array is reused, so should not be stored or
+		 *               changed.
+		 * @param offset Flat offset of an index.
+		 */
+		void accept(int[] index, int offset);
+	}
+
+	private final int indexes, size, total;
+	private final int[] current;
+	private int offset;
 
 	public IndexIterator(int indexesIn, int sizeIn) {
 		indexes = indexesIn;
 		size = sizeIn;
+		total = (int) Math.pow(size, indexes);
 		current = new int[indexes];
-		if (indexes > 0) {
-			current[indexes - 1] = -1;
-		}
+		reset();
 	}
 
 	@Override
 	public boolean hasNext() {
-		for (int i : current) {
-			if (i != (size - 1)) {
-				return true;
-			}
-		}
-		return false;
+		return (offset + 1) < total;
 	}
 
-	@Override
-	public int[] next() {
-		for (int i = indexes - 1; i > 0; i--) {
+	/**
+	 * Moves cursor to the next index.
+	 *
+	 * @return If there was next index.
+	 */
+	public boolean advance() {
+		if ((offset + 1) >= total) {
+			return false;
+		}
+		offset++;
+		for (int i = indexes - 1; i >= 0; i--) {
 			current[i]++;
 			if (current[i] != size) {
-				return Arrays.copyOf(current, indexes);
+				break;
 			}
 			current[i] = 0;
 		}
-		if (indexes > 0) {
-			current[0]++;
-		}
+		return true;
+	}
+
+	/**
+	 * @return Current index. Array is reused by following calls.
+	 */
+	public int[] index() {
+		return current;
+	}
+
+	/**
+	 * @return Flat offset of current index.
+	 */
+	public int offset() {
+		return offset;
+	}
+
+	@Override
+	public int[] next() {
+		advance();
 		return Arrays.copyOf(current, indexes);
 	}
 
 	public void reset() {
-		Arrays.fill(current, 0);
+		seek(0);
+	}
+
+	/**
+	 * Moves cursor right before specified position, so next call to
+	 * {@link #advance()} moves to it.
+	 *
+	 * @param offsetIn Flat offset of a next index.
+	 */
+	public void seek(int offsetIn) {
+		offset = offsetIn - 1;
+		for (int i = indexes - 1, rest = offsetIn; i >= 0; i--) {
+			current[i] = rest % size;
+			rest /= size;
+		}
 		if (indexes > 0) {
-			current[indexes - 1] = -1;
+			current[indexes - 1]--;
+		}
+	}
+
+	/**
+	 * Performs an action for every index. Large ranges may be split into chunks,
+	 * walked in parallel by the common pool.
+	 *
+	 * @param indexes  Number of indexes.
+	 * @param size     Size of an index.
+	 * @param parallel If walking in parallel is allowed.
+	 * @param action   Action to perform. Should be thread-safe, if parallel.
+	 */
+	public static void forEach(int indexes, int size, boolean parallel, IndexConsumer action) {
+		int total = (int) Math.pow(size, indexes);
+		if (!parallel || (total < PARALLEL_THRESHOLD)) {
+			IndexIterator iter = new IndexIterator(indexes, size);
+			while (iter.advance()) {
+				action.accept(iter.current, iter.offset);
+			}
+			return;
 		}
+		int chunks = Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, total / (PARALLEL_THRESHOLD / 4));
+		IntStream.range(0, chunks).parallel().forEach(c -> {
+			int from = (int) (((long) total * c) / chunks);
+			int to = (int) (((long) total * (c + 1)) / chunks);
+			IndexIterator iter = new IndexIterator(indexes, size);
+			iter.seek(from);
+			while (((iter.offset + 1) < to) && iter.advance()) {
+				action.accept(iter.current, iter.offset);
+			}
+		});
 	}
 
-}
\ No newline at end of file
+}
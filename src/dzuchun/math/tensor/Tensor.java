@@ -4,7 +4,6 @@ import java.util.Arrays;
 import java.util.function.Function;
 
 import dzuchun.util.ArrayUtil;
-import dzuchun.util.Util;
 
 public class Tensor<E> {
 	public final int order;
@@ -38,10 +37,47 @@ public class Tensor<E> {
 		}
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Creates a tensor without components array. Meant for subclasses, that store
+	 * components on their own.
+	 *
+	 * @param orderIn Order of a tensor.
+	 * @param sizeIn  Size of a tensor.
+	 */
+	protected Tensor(int orderIn, int sizeIn) {
+		this.order = orderIn;
+		this.size = sizeIn;
+	}
+
+	/**
+	 * Creates a new tensor object, generating every component from it's index.
+	 *
+	 * @param orderIn         Order of a tensor.
+	 * @param sizeIn          Size of a tensor.
+	 * @param elementSupplier Component generator. Index array passed is reused,
+	 *                        so should not be stored.
+	 */
 	public Tensor(int orderIn, int sizeIn, Function<int[], E> elementSupplier) {
-		this(orderIn, sizeIn, null,
-				(E[]) Util.collect(new IndexIterator(orderIn, sizeIn)).stream().map(elementSupplier).toArray());
+		this(orderIn, sizeIn, elementSupplier, false);
+	}
+
+	/**
+	 * Creates a new tensor object, generating every component from it's index.
+	 *
+	 * @param orderIn         Order of a tensor.
+	 * @param sizeIn          Size of a tensor.
+	 * @param elementSupplier Component generator. Index array passed is reused,
+	 *                        so should not be stored.
+	 * @param parallel        If large tensors may be generated in parallel
+	 *                        (generator should be thread-safe then).
+	 */
+	@SuppressWarnings("unchecked")
+	public Tensor(int orderIn, int sizeIn, Function<int[], E> elementSupplier, boolean parallel) {
+		this(orderIn, sizeIn);
+		E[] componentsIn = (E[]) new Object[(int) Math.pow(size, order)];
+		IndexIterator.forEach(order, size, parallel,
+				(index, offset) -> componentsIn[offset] = elementSupplier.apply(index));
+		components = componentsIn;
 	}
 
 	public Tensor(Tensor<E> t, Function<E, E> copyFunction) {
@@ -73,7 +109,7 @@ public class Tensor<E> {
 	}
 
 	public E firstComponent() {
-		return this.components[0];
+		return this.getComponent(0);
 	}
 
 	protected E getComponent(int d) {
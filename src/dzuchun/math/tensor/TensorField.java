@@ -3,11 +3,11 @@ package dzuchun.math.tensor;
 import java.util.Arrays;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 import dzuchun.math.LinearField;
 import dzuchun.math.Ring;
 import dzuchun.util.ArrayUtil;
-import dzuchun.util.Util;
 
 @SuppressWarnings("unchecked")
 public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
@@ -30,14 +30,62 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 	}
 
 	private TensorCreator<E, T> tensorFactory;
+	private ToDoubleFunction<E> magnitudeFunction;
+	private TensorPool<T> pool;
 
 	public TensorField(Ring<E> elemetsFieldIn, E[] exampleArrayIn, Function<E, E> copyFunctionIn,
 			TensorCreator<E, T> creatorIn) {
+		this(elemetsFieldIn, exampleArrayIn, copyFunctionIn, creatorIn, null);
+	}
+
+	/**
+	 * @param magnitudeFunctionIn Function returning absolute value of an element.
+	 *                            Required for norms, leave null if not needed.
+	 */
+	public TensorField(Ring<E> elemetsFieldIn, E[] exampleArrayIn, Function<E, E> copyFunctionIn,
+			TensorCreator<E, T> creatorIn, ToDoubleFunction<E> magnitudeFunctionIn) {
 		elementsField = elemetsFieldIn;
 		this.exampleArray = exampleArrayIn;
 		Arrays.fill(exampleArray, elemetsFieldIn.zero());
 		this.copyFunction = copyFunctionIn;
 		this.tensorFactory = creatorIn;
+		this.magnitudeFunction = magnitudeFunctionIn;
+	}
+
+	/**
+	 * Makes this field draw new tensors from a pool, instead of allocating them.
+	 * Pooled tensors keep their component objects, which are overwritten with
+	 * destination-passing operations of elements ring, so it should implement
+	 * them in-place for mutable elements.
+	 *
+	 * @param poolIn Pool to use, or {@code null} to allocate every tensor.
+	 */
+	public void setPool(TensorPool<T> poolIn) {
+		this.pool = poolIn;
+	}
+
+	public TensorPool<T> getPool() {
+		return pool;
+	}
+
+	/**
+	 * Returns a tensor, that won't be used anymore, to the pool. Does nothing if
+	 * there is no pool.
+	 *
+	 * @param t Tensor to release.
+	 */
+	public void release(T t) {
+		if (pool != null) {
+			pool.release(t);
+		}
+	}
+
+	/**
+	 * @return A tensor from the pool, or {@code null} if there is no pool or it
+	 *         has no tensors of such a shape.
+	 */
+	protected T fromPool(int order, int size) {
+		return (pool == null) ? null : pool.acquire(order, size);
 	}
 
 	@Override
@@ -54,7 +102,7 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 				elementsField.add(t1.components[i], t2.components[i], true, false);
 			}
 			if (write2) {
-				t2.components = ArrayUtil.deepCopy(t1.components, copyFunction, t1.components.length);
+				assign(t2, t1);
 			}
 			return t1;
 		}
@@ -64,6 +112,10 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 			}
 			return t2;
 		}
+		T pooled = fromPool(t1.order, t1.size);
+		if (pooled != null) {
+			return add(t1, t2, pooled);
+		}
 		E[] resComponents = ArrayUtil.deepCopy(t1.components, copyFunction, t1.components.length);
 		for (int i = 0; i < resComponents.length; i++) {
 			resComponents[i] = elementsField.add(t1.components[i], t2.components[i]);
@@ -79,6 +131,10 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 			}
 			return t;
 		}
+		T pooled = fromPool(t.order, t.size);
+		if (pooled != null) {
+			return neg(t, pooled);
+		}
 		E[] resComponents = ArrayUtil.deepCopy(t.components, copyFunction, t.components.length);
 		for (E resComponent : resComponents) {
 			elementsField.neg(resComponent, true);
@@ -93,10 +149,37 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 	 * @return A copied instance.
 	 */
 	public T copy(T t) {
+		T pooled = fromPool(t.order, t.size);
+		if (pooled != null) {
+			for (int i = 0; i < pooled.components.length; i++) {
+				pooled.components[i] = elementsField.assign(pooled.components[i], t.components[i]);
+			}
+			return pooled;
+		}
 		return tensorFactory.create(t.order, t.size, null,
 				ArrayUtil.deepCopy(t.components, copyFunction, t.components.length));
 	}
 
+	/**
+	 * Writes components of one tensor to another one.
+	 *
+	 * @param dest Tensor to write to.
+	 * @param src  Tensor to read from.
+	 * @return {@code dest}
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size.
+	 */
+	@Override
+	public T assign(T dest, T src) throws IllegalArgumentException {
+		if ((dest.order != src.order) || (dest.size != src.size)) {
+			throw (new IllegalArgumentException("Tensors do not match in rank!"));
+		}
+		for (int i = 0; i < dest.components.length; i++) {
+			dest.components[i] = copyFunction.apply(src.components[i]);
+		}
+		return dest;
+	}
+
 	@Override
 	// Example of overridden method.
 	/**
@@ -112,7 +195,7 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 				elementsField.sub(t1.components[i], t2.components[i], true, false);
 			}
 			if (write2) {
-				t2.components = ArrayUtil.deepCopy(t1.components, copyFunction, t1.components.length);
+				assign(t2, t1);
 			}
 			return t1;
 		}
@@ -122,6 +205,10 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 			}
 			return t2;
 		}
+		T pooled = fromPool(t1.order, t1.size);
+		if (pooled != null) {
+			return sub(t1, t2, pooled);
+		}
 		E[] resComponents = ArrayUtil.deepCopy(t1.components, copyFunction, t1.components.length);
 		for (int i = 0; i < resComponents.length; i++) {
 			resComponents[i] = elementsField.sub(t1.components[i], t2.components[i]);
@@ -129,22 +216,176 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 		return tensorFactory.create(t1.order, t1.size, null, resComponents);
 	}
 
-	private int cost1Order = 1, cost1Size = 1;
+	@Override
+	/**
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size.
+	 */
+	public T add(T t1, T t2, T dest) throws IllegalArgumentException {
+		checkRank(t1, t2, dest);
+		for (int i = 0; i < dest.components.length; i++) {
+			dest.components[i] = elementsField.add(t1.components[i], t2.components[i], dest.components[i]);
+		}
+		return dest;
+	}
+
+	@Override
+	/**
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size.
+	 */
+	public T sub(T t1, T t2, T dest) throws IllegalArgumentException {
+		checkRank(t1, t2, dest);
+		for (int i = 0; i < dest.components.length; i++) {
+			dest.components[i] = elementsField.sub(t1.components[i], t2.components[i], dest.components[i]);
+		}
+		return dest;
+	}
+
+	@Override
+	/**
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size.
+	 */
+	public T neg(T t, T dest) throws IllegalArgumentException {
+		checkRank(t, t, dest);
+		for (int i = 0; i < dest.components.length; i++) {
+			dest.components[i] = elementsField.neg(t.components[i], dest.components[i]);
+		}
+		return dest;
+	}
+
+	@Override
+	/**
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size.
+	 */
+	public T scale(T t, double scalar, T dest) throws IllegalArgumentException {
+		checkRank(t, t, dest);
+		for (int i = 0; i < dest.components.length; i++) {
+			dest.components[i] = elementsField.scale(t.components[i], scalar, dest.components[i]);
+		}
+		return dest;
+	}
+
+	private static void checkRank(Tensor<?> t1, Tensor<?> t2, Tensor<?> dest) throws IllegalArgumentException {
+		if ((t1.order != dest.order) || (t1.size != dest.size) || (t2.order != dest.order)
+				|| (t2.size != dest.size)) {
+			throw (new IllegalArgumentException("Tensors do not match in rank!"));
+		}
+	}
+
+	@Override
+	/**
+	 * Single pass {@code y += a * x}.
+	 *
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size.
+	 */
+	public T axpy(T y, double a, T x) throws IllegalArgumentException {
+		if ((y.order != x.order) || (y.size != x.size)) {
+			throw (new IllegalArgumentException("Tensors do not match in rank!"));
+		}
+		for (int i = 0; i < y.components.length; i++) {
+			y.components[i] = elementsField.add(y.components[i], elementsField.scale(x.components[i], a, false),
+					true, false);
+		}
+		return y;
+	}
+
+	@Override
+	/**
+	 * Single pass linear combination, every component of {@code dest} is written
+	 * once.
+	 *
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size, or numbers of ratios and tensors
+	 *                                  differ.
+	 */
+	public T linearCombination(T dest, double[] coeffs, T[] tensors) throws IllegalArgumentException {
+		checkCombination(dest, coeffs, tensors);
+		combine(dest, coeffs, tensors);
+		return dest;
+	}
+
+	/**
+	 * Linear combination kernel. Tensors array is typed loosely on purpose: arrays
+	 * of a generic type are usually created as {@code Tensor[]}, and should not be
+	 * cast to a subclass array.
+	 *
+	 * @param dest    Tensor to write result to.
+	 * @param coeffs  Ratios.
+	 * @param tensors Tensors to combine, already checked.
+	 */
+	protected void combine(T dest, double[] coeffs, Tensor<E>[] tensors) {
+		E tmp;
+		for (int i = 0; i < dest.components.length; i++) {
+			tmp = elementsField.scale(tensors[0].components[i], coeffs[0], false);
+			for (int j = 1; j < coeffs.length; j++) {
+				tmp = elementsField.add(tmp, elementsField.scale(tensors[j].components[i], coeffs[j], false), true,
+						false);
+			}
+			dest.components[i] = tmp;
+		}
+	}
+
+	protected static void checkCombination(Tensor<?> dest, double[] coeffs, Tensor<?>[] tensors)
+			throws IllegalArgumentException {
+		if ((coeffs.length != tensors.length) || (coeffs.length == 0)) {
+			throw new IllegalArgumentException("Numbers of coefficients and tensors differ");
+		}
+		for (Tensor<?> t : tensors) {
+			if ((t.order != dest.order) || (t.size != dest.size)) {
+				throw (new IllegalArgumentException("Tensors do not match in rank!"));
+			}
+		}
+	}
+
+	protected int cost1Order = 1, cost1Size = 1;
 
 	public T zero(T t) {
 		return zero(t.order, t.size);
 	}
 
+	/**
+	 * Creates a zero tensor of specified order and size. Neither reads nor changes
+	 * the shape of {@link #zero()}, so is safe to call concurrently.
+	 *
+	 * @param order Order of a tensor.
+	 * @param size  Size of a tensor.
+	 * @return A zero tensor.
+	 */
 	public T zero(int order, int size) {
+		T pooled = fromPool(order, size);
+		if (pooled != null) {
+			for (int i = 0; i < pooled.components.length; i++) {
+				pooled.components[i] = elementsField.assign(pooled.components[i], exampleArray[0]);
+			}
+			return pooled;
+		}
+		return tensorFactory.create(order, size, null,
+				ArrayUtil.deepCopy(exampleArray, copyFunction, (int) Math.pow(size, order), elementsField.zero()));
+	}
+
+	/**
+	 * Sets shape of tensors created by {@link #zero()}. Is not synchronized, so
+	 * should be called before a field is shared between threads.
+	 *
+	 * @param order Order of a tensor.
+	 * @param size  Size of a tensor.
+	 */
+	public void setZeroShape(int order, int size) {
 		cost1Order = order;
 		cost1Size = size;
-		return zero();
 	}
 
 	@Override
+	/**
+	 * @return A zero tensor of the shape set with {@link #setZeroShape}, a
+	 *         single component by default.
+	 */
 	public T zero() {
-		return tensorFactory.create(cost1Order, cost1Size, null, ArrayUtil.deepCopy(exampleArray, copyFunction,
-				(int) Math.pow(cost1Size, cost1Order), elementsField.zero()));
+		return zero(cost1Order, cost1Size);
 	}
 
 	/**
@@ -160,55 +401,154 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 	 * @return
 	 */
 	public T fold(T t1, T t2, int... indexes) {
-		int rank = indexes.length / 2;
-		if ((t1.size != t2.size) || (indexes.length < (rank * 2))) {
+		if (t1.size != t2.size) {
 			throw new IllegalArgumentException("Tensors differ in size!");
 		}
-		int[] t1Indexes = Arrays.stream(Util.orderInt(0, t1.order))
-				.filter(n -> (Arrays.binarySearch(indexes, 0, rank, n) < 0)
-						|| (n != indexes[Arrays.binarySearch(indexes, 0, rank, n)]))
-				.toArray();
-		int[] t1Coords = new int[t1.order];
-		int[] t2Indexes = Arrays.stream(Util.orderInt(0, t2.order))
-				.filter(n -> (Arrays.binarySearch(indexes, rank, rank * 2, n) < 0)
-						|| (n != indexes[Arrays.binarySearch(indexes, rank, rank * 2, n)]))
-				.toArray();
-		int[] t2Coords = new int[t2.order];
-//		System.out.println(String.format("Tensor indexes: \nt1:%s,\nt2:%s\nFold indexes:%s", Arrays.toString(t1Indexes),
-//				Arrays.toString(t2Indexes), Arrays.toString(indexes)));
-		int size = t1.size;
-		int order = (t1.order + t2.order) - (rank * 2);
-		E[] resComp = ArrayUtil.deepCopy(exampleArray, copyFunction, (int) Math.pow(size, order), elementsField.zero());
-		T res = (T) new Tensor<E>(order, size, null, resComp);
-		IndexIterator resIter = new IndexIterator(order, size);
-		IndexIterator sumIter = new IndexIterator(rank, size);
-		int[] resPos, sumPos;
+		ContractionPlan plan = ContractionPlan.of(t1.order, t2.order, t1.size, indexes);
+		E[] resComp = Arrays.copyOf(exampleArray, plan.base1.length);
 		E tmpRes;
-		do {
-			resPos = resIter.next();
-			for (int i = 0; i < t1Indexes.length; i++) {
-				t1Coords[t1Indexes[i]] = resPos[i];
-			}
-			for (int i = 0; i < t2Indexes.length; i++) {
-				t2Coords[t2Indexes[i]] = resPos[t1Indexes.length + i];
-			}
+		int b1, b2;
+		for (int r = 0; r < resComp.length; r++) {
+			b1 = plan.base1[r];
+			b2 = plan.base2[r];
 			tmpRes = elementsField.zero();
-			do {
-				sumPos = sumIter.next();
-				for (int i = 0; i < rank; i++) {
-					t1Coords[indexes[i]] = t2Coords[indexes[rank + i]] = sumPos[i];
-				}
-//				System.out.println(String.format(
-//						"Current tensor coordinates:\nt1:%s,\nt2:%s\nRes coordinates:%s,\nSum coordinates:%s",
-//						Arrays.toString(t1Coords), Arrays.toString(t2Coords), Arrays.toString(resPos),
-//						Arrays.toString(sumPos)));
-				tmpRes = elementsField.add(tmpRes,
-						elementsField.mul(t1.getComponentAt(t1Coords), t2.getComponentAt(t2Coords)), true, false);
-			} while (sumIter.hasNext());
-
-			res.setComponentAt(tmpRes, resPos);
-			sumIter.reset();
-		} while (resIter.hasNext());
+			for (int s = 0; s < plan.sum1.length; s++) {
+				tmpRes = elementsField.add(tmpRes, elementsField.mul(t1.getComponent(b1 + plan.sum1[s]),
+						t2.getComponent(b2 + plan.sum2[s])), true, false);
+			}
+			resComp[r] = tmpRes;
+		}
+		return (T) new Tensor<E>(plan.order, t1.size, null, resComp);
+	}
+
+	/**
+	 * Returns weighted root-mean-square norm of a tensor, every component being
+	 * divided by {@code atol + rtol * max(|ref1|, |ref2|)} of corresponding
+	 * reference components.
+	 *
+	 * @param t    Tensor to measure.
+	 * @param ref1 1st reference tensor.
+	 * @param ref2 2nd reference tensor.
+	 * @param atol Absolute tolerance.
+	 * @param rtol Relative tolerance.
+	 * @throws UnsupportedOperationException If no magnitude function was
+	 *                                       specified.
+	 * @return Weighted norm.
+	 */
+	public double rmsNorm(T t, T ref1, T ref2, double atol, double rtol) throws UnsupportedOperationException {
+		if (magnitudeFunction == null) {
+			throw new UnsupportedOperationException("No magnitude function specified");
+		}
+		double sum = 0, sc, tmp;
+		for (int i = 0; i < t.components.length; i++) {
+			sc = atol + (rtol * Math.max(magnitudeFunction.applyAsDouble(ref1.components[i]),
+					magnitudeFunction.applyAsDouble(ref2.components[i])));
+			tmp = magnitudeFunction.applyAsDouble(t.components[i]) / sc;
+			sum += tmp * tmp;
+		}
+		return Math.sqrt(sum / t.components.length);
+	}
+
+	/**
+	 * Returns weighted norm of a difference of two tensors, computed in one pass
+	 * without creating a difference tensor. Every component of a difference is
+	 * divided by {@code atol + rtol * max(|t1|, |t2|)} of corresponding
+	 * components.
+	 *
+	 * @param t1   1st tensor.
+	 * @param t2   2nd tensor.
+	 * @param atol Absolute tolerance.
+	 * @param rtol Relative tolerance.
+	 * @param max  If maximum norm should be returned instead of root-mean-square
+	 *             one.
+	 * @throws UnsupportedOperationException If no magnitude function was
+	 *                                       specified.
+	 * @throws IllegalArgumentException      If tensors specified are differ in
+	 *                                       order or size.
+	 * @return Weighted norm.
+	 */
+	public double diffNorm(T t1, T t2, double atol, double rtol, boolean max)
+			throws UnsupportedOperationException, IllegalArgumentException {
+		checkDiffNorm(t1, t2);
+		double res = 0, tmp;
+		for (int i = 0; i < t1.components.length; i++) {
+			tmp = magnitudeFunction.applyAsDouble(elementsField.sub(t1.components[i], t2.components[i]))
+					/ (atol + (rtol * Math.max(magnitudeFunction.applyAsDouble(t1.components[i]),
+							magnitudeFunction.applyAsDouble(t2.components[i]))));
+			res = max ? Math.max(res, tmp) : (res + (tmp * tmp));
+		}
+		return max ? res : Math.sqrt(res / t1.components.length);
+	}
+
+	/**
+	 * Returns weighted norm of a difference of two tensors, computed in one pass
+	 * without creating a difference tensor. Every component of a difference is
+	 * divided by {@code atol[i] + rtol[i] * max(|t1|, |t2|)} of corresponding
+	 * components.
+	 *
+	 * @param t1   1st tensor.
+	 * @param t2   2nd tensor.
+	 * @param atol Absolute tolerances, one per component.
+	 * @param rtol Relative tolerances, one per component.
+	 * @param max  If maximum norm should be returned instead of root-mean-square
+	 *             one.
+	 * @throws UnsupportedOperationException If no magnitude function was
+	 *                                       specified.
+	 * @throws IllegalArgumentException      If tensors specified are differ in
+	 *                                       order or size, or number of tolerances
+	 *                                       is incorrect.
+	 * @return Weighted norm.
+	 */
+	public double diffNorm(T t1, T t2, double[] atol, double[] rtol, boolean max)
+			throws UnsupportedOperationException, IllegalArgumentException {
+		checkDiffNorm(t1, t2);
+		checkTolerances(t1.components.length, atol, rtol);
+		double res = 0, tmp;
+		for (int i = 0; i < t1.components.length; i++) {
+			tmp = magnitudeFunction.applyAsDouble(elementsField.sub(t1.components[i], t2.components[i]))
+					/ (atol[i] + (rtol[i] * Math.max(magnitudeFunction.applyAsDouble(t1.components[i]),
+							magnitudeFunction.applyAsDouble(t2.components[i]))));
+			res = max ? Math.max(res, tmp) : (res + (tmp * tmp));
+		}
+		return max ? res : Math.sqrt(res / t1.components.length);
+	}
+
+	private void checkDiffNorm(T t1, T t2) throws UnsupportedOperationException, IllegalArgumentException {
+		if (magnitudeFunction == null) {
+			throw new UnsupportedOperationException("No magnitude function specified");
+		}
+		if ((t1.order != t2.order) || (t1.size != t2.size)) {
+			throw (new IllegalArgumentException("Tensors do not match in rank!"));
+		}
+	}
+
+	protected static void checkTolerances(int length, double[] atol, double[] rtol) throws IllegalArgumentException {
+		if ((atol.length != length) || (rtol.length != length)) {
+			throw new IllegalArgumentException("Number of tolerances specified is incorrect");
+		}
+	}
+
+	/**
+	 * Returns sum of squared components of a difference of two tensors, same as
+	 * full {@link #selfSymFold} of {@code sub(t1, t2)} would, but without creating
+	 * intermediate tensors.
+	 *
+	 * @param t1 1st tensor.
+	 * @param t2 2nd tensor.
+	 * @throws IllegalArgumentException If tensors specified are differ in order or
+	 *                                  size.
+	 * @return Squared distance.
+	 */
+	public E squaredDistance(T t1, T t2) throws IllegalArgumentException {
+		if ((t1.order != t2.order) || (t1.size != t2.size)) {
+			throw (new IllegalArgumentException("Tensors do not match in rank!"));
+		}
+		E res = elementsField.zero();
+		E tmp;
+		for (int i = 0; i < t1.components.length; i++) {
+			tmp = elementsField.sub(t1.components[i], t2.components[i]);
+			res = elementsField.add(res, elementsField.mul(tmp, tmp), true, false);
+		}
 		return res;
 	}
 
@@ -229,6 +569,10 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 			}
 			return t;
 		}
+		T pooled = fromPool(t.order, t.size);
+		if (pooled != null) {
+			return scale(t, scalar, pooled);
+		}
 		E[] resComponents = ArrayUtil.deepCopy(t.components, copyFunction, t.components.length);
 		for (E resComponent : resComponents) {
 			elementsField.scale(resComponent, scalar, true);
@@ -238,10 +582,8 @@ public class TensorField<E, T extends Tensor<E>> extends LinearField<T> {
 
 	public static <E, T extends Tensor<E>> T componentTransform(T t, BiConsumer<int[], E> transformer) {
 		IndexIterator iter = new IndexIterator(t.order, t.size);
-		int[] pos;
-		while (iter.hasNext()) {
-			pos = iter.next();
-			transformer.accept(pos, t.getComponentAt(pos));
+		while (iter.advance()) {
+			transformer.accept(iter.index(), t.getComponent(iter.offset()));
 		}
 		return t;
 	}
@@ -0,0 +1,93 @@
+package dzuchun.math.tensor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Recycles tensors of the same order and size. Every thread has pools of it's
+ * own, so no synchronization is involved: tensor released by a thread will be
+ * given out to the same thread only. Pool is opt-in, see
+ * {@link TensorField#setPool}.
+ * <p>
+ * Tensor must not be used after it's released, and must not be released
+ * twice. Pool does not check for either.
+ *
+ * @author dzu
+ *
+ * @param <T> Type of pooled tensors.
+ */
+public class TensorPool<T extends Tensor<?>> {
+
+	/**
+	 * Free tensors of a single shape.
+	 */
+	private static final class Shelf<T> {
+		final int order, size;
+		final ArrayDeque<T> free = new ArrayDeque<T>();
+
+		Shelf(int orderIn, int sizeIn) {
+			order = orderIn;
+			size = sizeIn;
+		}
+	}
+
+	private final int capacity;
+	private final ThreadLocal<ArrayList<Shelf<T>>> shelves = ThreadLocal.withInitial(ArrayList::new);
+
+	/**
+	 * @param capacityIn Maximal number of free tensors of a single shape, kept by
+	 *                   a thread. Tensors released over it are left for garbage
+	 *                   collector.
+	 */
+	public TensorPool(int capacityIn) {
+		this.capacity = capacityIn;
+	}
+
+	/**
+	 * @param order Order of a tensor.
+	 * @param size  Size of a tensor.
+	 * @return A released tensor of specified shape, holding arbitrary
+	 *         components, or {@code null} if there is none.
+	 */
+	public T acquire(int order, int size) {
+		Shelf<T> shelf = shelf(order, size, false);
+		return (shelf == null) ? null : shelf.free.pollLast();
+	}
+
+	/**
+	 * Makes tensor available for reuse.
+	 *
+	 * @param t Tensor not used anymore.
+	 */
+	public void release(T t) {
+		Shelf<T> shelf = shelf(t.order, t.size, true);
+		if (shelf.free.size() < capacity) {
+			shelf.free.addLast(t);
+		}
+	}
+
+	/**
+	 * Forgets all the tensors, released by current thread.
+	 */
+	public void clear() {
+		shelves.get().clear();
+	}
+
+	private Shelf<T> shelf(int order, int size, boolean create) {
+		// Number of shapes in use is small, so a linear scan is the fastest
+		ArrayList<Shelf<T>> list = shelves.get();
+		Shelf<T> shelf;
+		for (int i = 0; i < list.size(); i++) {
+			shelf = list.get(i);
+			if ((shelf.order == order) && (shelf.size == size)) {
+				return shelf;
+			}
+		}
+		if (!create) {
+			return null;
+		}
+		shelf = new Shelf<T>(order, size);
+		list.add(shelf);
+		return shelf;
+	}
+}
@@ -0,0 +1,170 @@
+package dzuchun.render;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+
+/**
+ * Moves frame encoding off the drawing thread. A submitted frame is copied to
+ * a snapshot, optionally transformed by a stage running on worker threads
+ * (like palette quantisation), and written to a {@link FrameSink} by a
+ * dedicated writer thread, in submission order.
+ * <p>
+ * At most {@code capacity} frames are in flight: {@link #submit} blocks while
+ * the queue is full, so memory stays bounded if encoding is slower than
+ * drawing. Snapshots are recycled once written.
+ *
+ * @author dzu
+ *
+ */
+public class FramePipeline implements AutoCloseable {
+
+	/**
+	 * A frame in flight. {@code snapshot} is recycled after {@code result} is
+	 * written.
+	 */
+	private static final class Entry {
+		final BufferedImage snapshot;
+		final Future<BufferedImage> result;
+
+		Entry(BufferedImage snapshotIn, Future<BufferedImage> resultIn) {
+			snapshot = snapshotIn;
+			result = resultIn;
+		}
+	}
+
+	private static final Entry END = new Entry(null, null);
+
+	private final FrameSink sink;
+	private final UnaryOperator<BufferedImage> stage;
+	private final ExecutorService workers;
+	private final BlockingQueue<Entry> queue;
+	private final BlockingQueue<BufferedImage> free;
+	private final Thread writer;
+	private volatile Throwable failure;
+	private long written;
+	private boolean closed;
+
+	/**
+	 * Creates a pipeline and starts it's threads.
+	 *
+	 * @param capacityIn Maximal number of frames submitted, but not yet written.
+	 * @param workersIn  Number of threads running a stage. Ignored, if there is
+	 *                   no stage.
+	 * @param stageIn    Transformation of a snapshot before it's written, or
+	 *                   {@code null} to write snapshots as is. May return it's
+	 *                   argument, and must not retain it otherwise.
+	 * @param sinkIn     Receiver of frames.
+	 */
+	public FramePipeline(int capacityIn, int workersIn, UnaryOperator<BufferedImage> stageIn, FrameSink sinkIn) {
+		this.sink = sinkIn;
+		this.stage = stageIn;
+		this.workers = (stage == null) ? null : Executors.newFixedThreadPool(workersIn, r -> {
+			Thread t = new Thread(r, "frame-stage");
+			t.setDaemon(true);
+			return t;
+		});
+		queue = new ArrayBlockingQueue<Entry>(capacityIn);
+		// Queued frames, one being written and one being submitted
+		free = new ArrayBlockingQueue<BufferedImage>(capacityIn + 2);
+		writer = new Thread(this::drain, "frame-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues a copy of a frame, so caller may continue drawing on it right away.
+	 * Blocks while pipeline is full.
+	 *
+	 * @param frame Frame to write.
+	 * @throws IOException If an earlier frame failed, or thread was interrupted.
+	 */
+	public void submit(BufferedImage frame) throws IOException {
+		checkFailure();
+		if (closed) {
+			throw new IllegalStateException("Pipeline is closed");
+		}
+		BufferedImage snapshot = Frames.snapshot(frame, free);
+		Future<BufferedImage> result = (stage == null) ? CompletableFuture.completedFuture(snapshot)
+				: workers.submit(() -> stage.apply(snapshot));
+		try {
+			queue.put(new Entry(snapshot, result));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a free slot");
+		}
+	}
+
+	/**
+	 * Writer thread loop. After a failure keeps taking frames, so producer is
+	 * never blocked forever.
+	 */
+	private void drain() {
+		Entry entry;
+		BufferedImage image;
+		try {
+			while ((entry = queue.take()) != END) {
+				if (failure != null) {
+					continue;
+				}
+				try {
+					image = entry.result.get();
+					sink.write(image);
+					written++;
+				} catch (ExecutionException e) {
+					failure = e.getCause();
+				} catch (IOException | RuntimeException e) {
+					failure = e;
+				}
+				free.offer(entry.snapshot);
+			}
+		} catch (InterruptedException e) {
+			failure = e;
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Frames.checkFailure(failure, "Frame pipeline failed");
+	}
+
+	/**
+	 * Waits for all the submitted frames to be written and stops threads. Sink
+	 * is not closed.
+	 *
+	 * @throws IOException If any frame failed, or thread was interrupted.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			queue.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for frames to be written");
+		} finally {
+			if (workers != null) {
+				workers.shutdown();
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @return Number of frames written so far. Is exact after {@link #close()}.
+	 */
+	public long getWritten() {
+		return written;
+	}
+}
@@ -0,0 +1,321 @@
+package dzuchun.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes frames as a numbered sequence of files, to be consumed by external
+ * video tools. Frames are independent once copied, so they are encoded
+ * concurrently on a worker pool and may complete out of order.
+ * <p>
+ * Each frame is written to a temporary file and then renamed, so a frame file
+ * is either complete or absent. Completed frames are appended to a manifest in
+ * the same directory, and an exporter created over an existing manifest skips
+ * frames listed there: an interrupted run may be repeated, and only missing
+ * frames are encoded.
+ *
+ * @author dzu
+ *
+ */
+public class FrameSequenceExporter implements FrameSink, Closeable {
+
+	/**
+	 * Encoding of frame files.
+	 */
+	public enum Format {
+		/**
+		 * PNG images, by {@link ImageIO}.
+		 */
+		PNG("png"),
+		/**
+		 * Headerless 8-bit RGB triples, row by row, as
+		 * {@code ffmpeg -f rawvideo -pix_fmt rgb24} reads them. Frame size is
+		 * recorded in the manifest.
+		 */
+		RAW("rgb");
+
+		public final String extension;
+
+		private Format(String extensionIn) {
+			this.extension = extensionIn;
+		}
+	}
+
+	private final Path directory;
+	private final String prefix;
+	private final Format format;
+	private final Path manifest;
+	private final ExecutorService workers;
+	private final Semaphore slots;
+	private final BlockingQueue<BufferedImage> free;
+	private final BitSet done = new BitSet();
+	private final BufferedWriter manifestWriter;
+	private volatile Throwable failure;
+	private int next;
+	private long written, skipped;
+	private boolean closed;
+
+	/**
+	 * Creates an exporter, reading a manifest of a previous run, if any.
+	 *
+	 * @param directoryIn Directory to write frames to. Is created, if needed.
+	 * @param prefixIn    Beginning of frame file names, followed by a frame
+	 *                    number.
+	 * @param formatIn    Encoding of frames.
+	 * @param workersIn   Number of threads encoding frames.
+	 * @param capacityIn  Maximal number of frames submitted, but not yet written.
+	 * @throws IOException If manifest could not be read or belongs to a different
+	 *                     format.
+	 */
+	public FrameSequenceExporter(Path directoryIn, String prefixIn, Format formatIn, int workersIn, int capacityIn)
+			throws IOException {
+		this.directory = directoryIn;
+		this.prefix = prefixIn;
+		this.format = formatIn;
+		Files.createDirectories(directory);
+		manifest = directory.resolve(prefix + "manifest.txt");
+		if (Files.exists(manifest)) {
+			readManifest();
+		}
+		manifestWriter = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+		if (Files.size(manifest) == 0) {
+			manifestWriter.write("format " + format.name());
+			manifestWriter.newLine();
+			manifestWriter.flush();
+		}
+		workers = Executors.newFixedThreadPool(workersIn, r -> {
+			Thread t = new Thread(r, "frame-exporter");
+			t.setDaemon(true);
+			return t;
+		});
+		slots = new Semaphore(capacityIn);
+		free = new ArrayBlockingQueue<BufferedImage>(capacityIn);
+	}
+
+	/**
+	 * Manifest is a format line followed by a line per completed frame, with
+	 * frame number and size. Frames with missing files are encoded again.
+	 */
+	private void readManifest() throws IOException {
+		List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+		String[] parts;
+		int frame;
+		for (String line : lines) {
+			parts = line.trim().split("\\s+");
+			if (parts[0].isEmpty()) {
+				continue;
+			}
+			if ("format".equals(parts[0])) {
+				if ((parts.length < 2) || !format.name().equals(parts[1])) {
+					throw new IOException(String.format("Manifest %s was written for a different format", manifest));
+				}
+				continue;
+			}
+			try {
+				frame = Integer.parseInt(parts[0]);
+			} catch (NumberFormatException e) {
+				throw new IOException(String.format("Malformed manifest line \"%s\"", line), e);
+			}
+			if (Files.exists(framePath(frame))) {
+				done.set(frame);
+			}
+		}
+	}
+
+	/**
+	 * @param frame Frame number.
+	 * @return Path of a frame file.
+	 */
+	public Path framePath(int frame) {
+		return directory.resolve(String.format("%s%06d.%s", prefix, frame, format.extension));
+	}
+
+	/**
+	 * @return Number of the first frame, that is not written yet.
+	 */
+	public synchronized int getResumeFrame() {
+		return done.nextClearBit(0);
+	}
+
+	/**
+	 * @param frame Frame number.
+	 * @return If frame is already written, by this or a previous run.
+	 */
+	public synchronized boolean isWritten(int frame) {
+		return done.get(frame);
+	}
+
+	/**
+	 * Exports a frame under the next number, counting from 0.
+	 */
+	@Override
+	public void write(BufferedImage frame) throws IOException {
+		write(next++, frame);
+	}
+
+	/**
+	 * Queues a copy of a frame for encoding, so caller may continue drawing on it
+	 * right away. Frames written already are skipped. Blocks while exporter is
+	 * full.
+	 *
+	 * @param index Frame number.
+	 * @param frame Frame to export.
+	 * @throws IOException If an earlier frame failed, or thread was interrupted.
+	 */
+	public void write(int index, BufferedImage frame) throws IOException {
+		checkFailure();
+		if (closed) {
+			throw new IllegalStateException("Exporter is closed");
+		}
+		if (isWritten(index)) {
+			skipped++;
+			return;
+		}
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a free slot");
+		}
+		BufferedImage snapshot = Frames.snapshot(frame, free);
+		workers.execute(() -> {
+			try {
+				if (failure == null) {
+					export(index, snapshot);
+				}
+			} catch (IOException | RuntimeException e) {
+				failure = e;
+			} finally {
+				free.offer(snapshot);
+				slots.release();
+			}
+		});
+	}
+
+	private void export(int index, BufferedImage image) throws IOException {
+		Path target = framePath(index);
+		Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+			if (format == Format.PNG) {
+				if (!ImageIO.write(image, "png", out)) {
+					throw new IOException("No PNG writer available");
+				}
+			} else {
+				writeRaw(image, out);
+			}
+		}
+		try {
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		synchronized (this) {
+			done.set(index);
+			written++;
+			manifestWriter.write(String.format("%d %d %d", index, image.getWidth(), image.getHeight()));
+			manifestWriter.newLine();
+			// Frame is recorded only once it's line is on disk
+			manifestWriter.flush();
+		}
+	}
+
+	private static void writeRaw(BufferedImage image, OutputStream out) throws IOException {
+		int width = image.getWidth(), height = image.getHeight();
+		byte[] row = new byte[width * 3];
+		int[] pixels;
+		int offset, stride;
+		int type = image.getType();
+		if ((type == BufferedImage.TYPE_INT_RGB) || (type == BufferedImage.TYPE_INT_ARGB)) {
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			stride = ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+		} else {
+			pixels = new int[width];
+			stride = 0;
+		}
+		int p;
+		for (int y = 0; y < height; y++) {
+			if (stride == 0) {
+				image.getRGB(0, y, width, 1, pixels, 0, width);
+				offset = 0;
+			} else {
+				offset = y * stride;
+			}
+			for (int x = 0; x < width; x++) {
+				p = pixels[offset + x];
+				row[3 * x] = (byte) (p >> 16);
+				row[(3 * x) + 1] = (byte) (p >> 8);
+				row[(3 * x) + 2] = (byte) p;
+			}
+			out.write(row);
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Frames.checkFailure(failure, "Frame export failed");
+	}
+
+	/**
+	 * Waits for all the submitted frames to be written and stops threads.
+	 *
+	 * @throws IOException If any frame failed, or thread was interrupted.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		workers.shutdown();
+		try {
+			while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+				// Waiting for the encoding to finish
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for frames to be written");
+		} finally {
+			synchronized (this) {
+				manifestWriter.close();
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @return Number of frames encoded by this exporter so far.
+	 */
+	public synchronized long getWritten() {
+		return written;
+	}
+
+	/**
+	 * @return Number of frames skipped, as they were written by a previous run.
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+}
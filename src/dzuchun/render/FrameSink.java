@@ -0,0 +1,22 @@
+package dzuchun.render;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Final stage of a {@link FramePipeline}, like an encoder. Receives frames one
+ * at a time, in order they were submitted.
+ *
+ * @author dzu
+ *
+ */
+@FunctionalInterface
+public interface FrameSink {
+
+	/**
+	 * @param frame Frame to write. Is reused after this method returns, so it
+	 *              must not be retained.
+	 * @throws IOException If frame could not be written.
+	 */
+	void write(BufferedImage frame) throws IOException;
+}
@@ -0,0 +1,55 @@
+package dzuchun.render;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Helpers shared by classes, that encode copies of frames on other threads.
+ *
+ * @author dzu
+ *
+ */
+final class Frames {
+
+	private Frames() {
+	}
+
+	/**
+	 * Copies a frame, reusing a recycled image of the same size and type, if
+	 * there is one.
+	 *
+	 * @param frame Frame to copy.
+	 * @param free  Recycled images.
+	 * @return A copy.
+	 */
+	static BufferedImage snapshot(BufferedImage frame, BlockingQueue<BufferedImage> free) {
+		BufferedImage res = free.poll();
+		if ((res == null) || (res.getWidth() != frame.getWidth()) || (res.getHeight() != frame.getHeight())
+				|| (res.getType() != frame.getType())) {
+			res = new BufferedImage(frame.getColorModel(), frame.copyData(null), frame.isAlphaPremultiplied(),
+					null);
+		} else {
+			frame.copyData(res.getRaster());
+		}
+		return res;
+	}
+
+	/**
+	 * Rethrows a failure of a background thread, if any.
+	 *
+	 * @param failure Failure, or {@code null}.
+	 * @param message Message to wrap failures other than {@link IOException}
+	 *                with.
+	 * @throws IOException If there was a failure.
+	 */
+	static void checkFailure(Throwable failure, String message) throws IOException {
+		if (failure == null) {
+			return;
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		throw new IOException(message, failure);
+	}
+}
@@ -0,0 +1,333 @@
+package dzuchun.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Animated GIF encoder with a fixed global palette, for frames drawn with a
+ * known set of colours. Pixels are mapped to a palette directly (colours
+ * missing from it are mapped to the nearest entry), so no quantisation is
+ * involved. Every frame after the first one encodes only the bounding
+ * rectangle of pixels changed since the previous frame, over it
+ * ({@code disposalMethod=none}), so frames, that only add some lines, are
+ * small and fast to encode. If palette has less than 256 colours, unchanged
+ * pixels within a rectangle are written as transparent, which compresses to
+ * almost nothing.
+ *
+ * @author dzu
+ *
+ */
+public class PaletteGifWriter implements FrameSink, Closeable {
+	private static final int MAX_CODES = 4096, MAX_CODE_SIZE = 12;
+	private static final int CACHE_SIZE = 1 << 12;
+
+	private final OutputStream out;
+	private final int width, height;
+	private final int[] palette;
+	private final int delay;
+	private final int minCodeSize;
+	// Index of a transparent colour, or -1 if palette is full
+	private final int transparent;
+	// Colour -> palette index cache, open addressing
+	private final int[] cacheKeys = new int[CACHE_SIZE];
+	private final byte[] cacheValues = new byte[CACHE_SIZE];
+	private int cached;
+	// Previous frame colours, current frame colours and rectangle indexes
+	private final int[] previous, current;
+	private final byte[] indexes;
+	private boolean first = true, closed;
+	private long frames;
+
+	// LZW state
+	private final int[] hashKeys = new int[8192], hashCodes = new int[8192];
+	private final byte[] block = new byte[256];
+	private int blockSize, bitBuffer, bitCount;
+
+	/**
+	 * Creates an encoder and writes GIF header.
+	 *
+	 * @param outIn     Stream to write to. Is not closed by {@link #close()}.
+	 * @param widthIn   Width of frames.
+	 * @param heightIn  Height of frames.
+	 * @param paletteIn Colours, packed as {@code 0xRRGGBB} (alpha is ignored). At
+	 *                  most 256.
+	 * @param delayIn   Delay between frames, in milliseconds.
+	 * @param loop      If animation should loop.
+	 * @throws IllegalArgumentException If palette is empty or too large.
+	 * @throws IOException              If header could not be written.
+	 */
+	public PaletteGifWriter(OutputStream outIn, int widthIn, int heightIn, int[] paletteIn, int delayIn,
+			boolean loop) throws IllegalArgumentException, IOException {
+		if ((paletteIn.length == 0) || (paletteIn.length > 256)) {
+			throw new IllegalArgumentException("Palette must contain 1 to 256 colours");
+		}
+		this.out = outIn;
+		this.width = widthIn;
+		this.height = heightIn;
+		this.palette = new int[paletteIn.length];
+		for (int i = 0; i < palette.length; i++) {
+			palette[i] = paletteIn[i] & 0xFFFFFF;
+		}
+		this.delay = delayIn / 10;
+		transparent = (palette.length < 256) ? palette.length : -1;
+		int bits = 1;
+		while ((1 << bits) < (palette.length + ((transparent < 0) ? 0 : 1))) {
+			bits++;
+		}
+		minCodeSize = Math.max(2, bits);
+		Arrays.fill(cacheKeys, -1);
+		previous = new int[width * height];
+		current = new int[width * height];
+		indexes = new byte[width * height];
+		writeHeader(bits, loop);
+	}
+
+	private void writeHeader(int bits, boolean loop) throws IOException {
+		out.write(new byte[] { 'G', 'I', 'F', '8', '9', 'a' });
+		writeShort(width);
+		writeShort(height);
+		// Global colour table of 2^bits entries, 8 bits per primary colour
+		out.write(0xF0 | (bits - 1));
+		out.write(0);
+		out.write(0);
+		for (int i = 0; i < (1 << bits); i++) {
+			int c = (i < palette.length) ? palette[i] : 0;
+			out.write(c >> 16);
+			out.write(c >> 8);
+			out.write(c);
+		}
+		if (loop) {
+			out.write(new byte[] { 0x21, (byte) 0xFF, 0x0B, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 3,
+					1, 0, 0, 0 });
+		}
+	}
+
+	@Override
+	public void write(BufferedImage frame) throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		if ((frame.getWidth() != width) || (frame.getHeight() != height)) {
+			throw new IOException(String.format("Frame is %dx%d, expected %dx%d", frame.getWidth(),
+					frame.getHeight(), width, height));
+		}
+		readPixels(frame);
+		// Changed rectangle
+		int left = width, right = -1, top = height, bottom = -1;
+		int row;
+		if (first) {
+			left = top = 0;
+			right = width - 1;
+			bottom = height - 1;
+		}
+		for (int y = first ? height : 0; y < height; y++) {
+			row = y * width;
+			for (int x = 0; x < width; x++) {
+				if (current[row + x] != previous[row + x]) {
+					if (x < left) {
+						left = x;
+					}
+					if (x > right) {
+						right = x;
+					}
+					top = Math.min(top, y);
+					bottom = y;
+					// Only columns outside of a found range are interesting
+					for (x = width - 1; x > right; x--) {
+						if (current[row + x] != previous[row + x]) {
+							right = x;
+						}
+					}
+					break;
+				}
+			}
+		}
+		if (right < 0) {
+			// Nothing changed, still a frame is needed for timing
+			left = right = top = bottom = 0;
+		}
+		final boolean delta = !first && (transparent >= 0);
+		first = false;
+		int w = (right - left) + 1, h = (bottom - top) + 1;
+		int n = 0;
+		for (int y = top; y <= bottom; y++) {
+			row = y * width;
+			for (int x = left; x <= right; x++) {
+				indexes[n++] = (delta && (current[row + x] == previous[row + x])) ? (byte) transparent
+						: index(current[row + x]);
+			}
+		}
+		System.arraycopy(current, 0, previous, 0, current.length);
+		// Graphic control extension: no disposal
+		out.write(new byte[] { 0x21, (byte) 0xF9, 4, (byte) ((1 << 2) | (delta ? 1 : 0)) });
+		writeShort(delay);
+		out.write(delta ? transparent : 0);
+		out.write(0);
+		// Image descriptor, no local colour table
+		out.write(0x2C);
+		writeShort(left);
+		writeShort(top);
+		writeShort(w);
+		writeShort(h);
+		out.write(0);
+		encode(n);
+		frames++;
+	}
+
+	private void readPixels(BufferedImage frame) {
+		int type = frame.getType();
+		if ((type == BufferedImage.TYPE_INT_RGB) || (type == BufferedImage.TYPE_INT_ARGB)) {
+			int[] data = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+			int stride = ((SinglePixelPackedSampleModel) frame.getSampleModel()).getScanlineStride();
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					current[(y * width) + x] = data[(y * stride) + x] & 0xFFFFFF;
+				}
+			}
+		} else {
+			frame.getRGB(0, 0, width, height, current, 0, width);
+			for (int i = 0; i < current.length; i++) {
+				current[i] &= 0xFFFFFF;
+			}
+		}
+	}
+
+	/**
+	 * @return Palette index of a colour, exact or nearest.
+	 */
+	private byte index(int rgb) {
+		int slot = (rgb * 0x9E3779B1) >>> (32 - 12);
+		while (cacheKeys[slot] != -1) {
+			if (cacheKeys[slot] == rgb) {
+				return cacheValues[slot];
+			}
+			slot = (slot + 1) & (CACHE_SIZE - 1);
+		}
+		int best = 0;
+		long bestDistance = Long.MAX_VALUE, distance;
+		int dr, dg, db;
+		for (int i = 0; i < palette.length; i++) {
+			dr = ((rgb >> 16) & 0xFF) - ((palette[i] >> 16) & 0xFF);
+			dg = ((rgb >> 8) & 0xFF) - ((palette[i] >> 8) & 0xFF);
+			db = (rgb & 0xFF) - (palette[i] & 0xFF);
+			distance = (dr * dr) + (dg * dg) + (db * db);
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = i;
+			}
+		}
+		// Keeping cache at most half full, so probes stay short
+		if (cached < (CACHE_SIZE / 2)) {
+			cacheKeys[slot] = rgb;
+			cacheValues[slot] = (byte) best;
+			cached++;
+		}
+		return (byte) best;
+	}
+
+	/**
+	 * LZW-compresses first {@code n} indexes as GIF image data. Table is cleared
+	 * once it's full.
+	 */
+	private void encode(int n) throws IOException {
+		out.write(minCodeSize);
+		final int clear = 1 << minCodeSize, end = clear + 1;
+		int next = clear + 2, codeSize = minCodeSize + 1;
+		Arrays.fill(hashKeys, -1);
+		blockSize = bitBuffer = bitCount = 0;
+		emit(clear, codeSize);
+		int prefix = indexes[0] & 0xFF;
+		int key, slot;
+		for (int i = 1; i < n; i++) {
+			key = (prefix << 8) | (indexes[i] & 0xFF);
+			slot = (key * 0x9E3779B1) >>> (32 - 13);
+			while ((hashKeys[slot] != -1) && (hashKeys[slot] != key)) {
+				slot = (slot + 1) & (hashKeys.length - 1);
+			}
+			if (hashKeys[slot] == key) {
+				prefix = hashCodes[slot];
+				continue;
+			}
+			emit(prefix, codeSize);
+			if (next < MAX_CODES) {
+				hashKeys[slot] = key;
+				hashCodes[slot] = next++;
+				// Decoder lags one entry behind, so it widens codes one entry later
+				if ((next > (1 << codeSize)) && (codeSize < MAX_CODE_SIZE)) {
+					codeSize++;
+				}
+			} else {
+				emit(clear, codeSize);
+				Arrays.fill(hashKeys, -1);
+				next = clear + 2;
+				codeSize = minCodeSize + 1;
+			}
+			prefix = indexes[i] & 0xFF;
+		}
+		emit(prefix, codeSize);
+		if ((next == (1 << codeSize)) && (codeSize < MAX_CODE_SIZE)) {
+			codeSize++;
+		}
+		emit(end, codeSize);
+		if (bitCount > 0) {
+			pushByte(bitBuffer);
+		}
+		flushBlock();
+		// Block terminator
+		out.write(0);
+	}
+
+	private void emit(int code, int codeSize) throws IOException {
+		bitBuffer |= code << bitCount;
+		bitCount += codeSize;
+		while (bitCount >= 8) {
+			pushByte(bitBuffer);
+			bitBuffer >>>= 8;
+			bitCount -= 8;
+		}
+	}
+
+	private void pushByte(int b) throws IOException {
+		block[++blockSize] = (byte) b;
+		if (blockSize == 255) {
+			flushBlock();
+		}
+	}
+
+	private void flushBlock() throws IOException {
+		if (blockSize > 0) {
+			block[0] = (byte) blockSize;
+			out.write(block, 0, blockSize + 1);
+			blockSize = 0;
+		}
+	}
+
+	private void writeShort(int value) throws IOException {
+		out.write(value & 0xFF);
+		out.write((value >> 8) & 0xFF);
+	}
+
+	/**
+	 * Writes GIF trailer and flushes the stream. Stream itself is not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			out.write(0x3B);
+			out.flush();
+		}
+	}
+
+	/**
+	 * @return Number of frames written.
+	 */
+	public long getFrames() {
+		return frames;
+	}
+}
@@ -0,0 +1,263 @@
+package dzuchun.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Draws straight into pixel array of an integer-packed {@link BufferedImage},
+ * bypassing Java2D. Lines are rasterised with Bresenham's algorithm, both ends
+ * included. Lines are clipped to the image before they are walked, so parts
+ * outside of it cost nothing, and pixels drawn are exactly the ones of an
+ * unclipped line.
+ * <p>
+ * Large batches are split by horizontal bands of an image, drawn in parallel.
+ * Segments are sorted to bands they cross, and every band draws it's segments
+ * in order, keeping pixels within it only, so result does not depend on a
+ * number of bands. Error term of Bresenham's algorithm after any number of
+ * steps has a closed form, so a band jumps straight to the first of it's rows
+ * on a segment, and walks only pixels within it, however long a segment is.
+ * <p>
+ * Is not thread-safe, as band buffers are reused between batches.
+ *
+ * @author dzu
+ *
+ */
+public class Rasteriser {
+	/**
+	 * Minimal number of segments in a batch, that is drawn in parallel.
+	 */
+	public static final int PARALLEL_THRESHOLD = 1 << 12;
+
+	private final int[] pixels;
+	private final int width, height, stride;
+	private final int bands;
+	// Band of every row, and indexes of segments crossing every band
+	private final int[] bandOfRow;
+	private final int[][] bandSegments;
+	private final int[] bandSizes;
+
+	/**
+	 * @param image Image to draw on. Must be of {@code TYPE_INT_RGB} or
+	 *              {@code TYPE_INT_ARGB} type.
+	 * @throws IllegalArgumentException If image is of unsupported type.
+	 */
+	public Rasteriser(BufferedImage image) throws IllegalArgumentException {
+		this(image, Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * @param image   Image to draw on. Must be of {@code TYPE_INT_RGB} or
+	 *                {@code TYPE_INT_ARGB} type.
+	 * @param bandsIn Number of horizontal bands, large batches are split into.
+	 * @throws IllegalArgumentException If image is of unsupported type.
+	 */
+	public Rasteriser(BufferedImage image, int bandsIn) throws IllegalArgumentException {
+		if ((image.getType() != BufferedImage.TYPE_INT_RGB) && (image.getType() != BufferedImage.TYPE_INT_ARGB)) {
+			throw new IllegalArgumentException("Only TYPE_INT_RGB and TYPE_INT_ARGB images are supported");
+		}
+		// Accessing the array makes Java2D stop caching an image, that is fine
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		width = image.getWidth();
+		height = image.getHeight();
+		stride = ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+		bands = Math.max(1, Math.min(bandsIn, height));
+		bandOfRow = new int[height];
+		for (int b = 0; b < bands; b++) {
+			Arrays.fill(bandOfRow, (b * height) / bands, ((b + 1) * height) / bands, b);
+		}
+		bandSegments = new int[bands][16];
+		bandSizes = new int[bands];
+	}
+
+	/**
+	 * Fills whole image with a colour.
+	 *
+	 * @param rgb Packed colour.
+	 */
+	public void fill(int rgb) {
+		Arrays.fill(pixels, rgb);
+	}
+
+	/**
+	 * Draws a single segment.
+	 *
+	 * @param x0  1st end column.
+	 * @param y0  1st end row.
+	 * @param x1  2nd end column.
+	 * @param y1  2nd end row.
+	 * @param rgb Packed colour.
+	 */
+	public void line(int x0, int y0, int x1, int y1, int rgb) {
+		line(x0, y0, x1, y1, rgb, 0, height);
+	}
+
+	/**
+	 * Draws all the segments of a batch, in order. Batch is not modified.
+	 *
+	 * @param batch Segments to draw.
+	 */
+	public void draw(SegmentBatch batch) {
+		int[] c = batch.coords;
+		int base;
+		if ((batch.size < PARALLEL_THRESHOLD) || (bands == 1)) {
+			for (int s = 0; s < batch.size; s++) {
+				base = s * 4;
+				line(c[base], c[base + 1], c[base + 2], c[base + 3], batch.colors[s], 0, height);
+			}
+			return;
+		}
+		sortToBands(batch);
+		IntStream.range(0, bands).parallel().forEach(b -> {
+			int[] segments = bandSegments[b];
+			int yMin = (b * height) / bands, yMax = ((b + 1) * height) / bands;
+			int sb;
+			for (int i = 0; i < bandSizes[b]; i++) {
+				sb = segments[i] * 4;
+				line(c[sb], c[sb + 1], c[sb + 2], c[sb + 3], batch.colors[segments[i]], yMin, yMax);
+			}
+		});
+	}
+
+	private void sortToBands(SegmentBatch batch) {
+		Arrays.fill(bandSizes, 0);
+		int[] c = batch.coords;
+		int base, yLo, yHi;
+		for (int s = 0; s < batch.size; s++) {
+			base = s * 4;
+			yLo = Math.max(0, Math.min(c[base + 1], c[base + 3]));
+			yHi = Math.min(height - 1, Math.max(c[base + 1], c[base + 3]));
+			if (yLo > yHi) {
+				continue;
+			}
+			for (int b = bandOfRow[yLo]; b <= bandOfRow[yHi]; b++) {
+				if (bandSizes[b] == bandSegments[b].length) {
+					bandSegments[b] = Arrays.copyOf(bandSegments[b], bandSizes[b] * 2);
+				}
+				bandSegments[b][bandSizes[b]++] = s;
+			}
+		}
+	}
+
+	/**
+	 * Bresenham's line, writing only pixels with rows in {@code [yMin, yMax)}.
+	 * Iterations, at which a pixel is within the clip rectangle, form a single
+	 * range, so it is found first, and only that range is walked.
+	 */
+	private void line(int x0, int y0, int x1, int y1, int rgb, int yMin, int yMax) {
+		// Trivial rejection
+		if (((y0 < yMin) && (y1 < yMin)) || ((y0 >= yMax) && (y1 >= yMax)) || ((x0 < 0) && (x1 < 0))
+				|| ((x0 >= width) && (x1 >= width))) {
+			return;
+		}
+		// Far ends of saturated coordinates do not fit an int difference
+		final long dx = Math.abs((long) x1 - x0), dy = -Math.abs((long) y1 - y0);
+		final int sx = (x0 < x1) ? 1 : -1, sy = (y0 < y1) ? 1 : -1;
+		final long err0 = dx + dy;
+		// Major coordinate changes every iteration, minor one only sometimes
+		final boolean rowMajor = dx <= -dy;
+		final long n = rowMajor ? -dy : dx, minor = rowMajor ? dx : -dy;
+		if (n == 0) {
+			// A single pixel, that passed rejection
+			pixels[(y0 * stride) + x0] = rgb;
+			return;
+		}
+		long majorLo, majorHi, minorLo, minorHi;
+		if (rowMajor) {
+			majorLo = (sy > 0) ? ((long) yMin - y0) : ((long) y0 - (yMax - 1));
+			majorHi = (sy > 0) ? ((long) (yMax - 1) - y0) : ((long) y0 - yMin);
+			minorLo = (sx > 0) ? -(long) x0 : ((long) x0 - (width - 1));
+			minorHi = (sx > 0) ? ((long) (width - 1) - x0) : x0;
+		} else {
+			majorLo = (sx > 0) ? -(long) x0 : ((long) x0 - (width - 1));
+			majorHi = (sx > 0) ? ((long) (width - 1) - x0) : x0;
+			minorLo = (sy > 0) ? ((long) yMin - y0) : ((long) y0 - (yMax - 1));
+			minorHi = (sy > 0) ? ((long) (yMax - 1) - y0) : ((long) y0 - yMin);
+		}
+		// Minor coordinate changes floor((c + k * a) / b) times over k iterations
+		final long a = rowMajor ? dx : -dy, b = n;
+		final long c = rowMajor ? (err0 - ((dx + dy) - (b / 2))) : (-err0 - ((-dy - dx) - (b / 2)));
+		long kLo = Math.max(0, majorLo), kHi = Math.min(n, majorHi);
+		if (minorLo > 0) {
+			kLo = Math.max(kLo, Rasteriser.firstReaching(a, b, c, n, minorLo));
+		}
+		if (minorHi < minor) {
+			kHi = Math.min(kHi, Rasteriser.firstReaching(a, b, c, n, minorHi + 1) - 1);
+		}
+		if (kLo > kHi) {
+			return;
+		}
+		// Jumping right to the first visible pixel, error term stays exact
+		long m = Rasteriser.floorDiv(kLo, a, c, b);
+		long err;
+		int x, y;
+		if (rowMajor) {
+			err = (err0 + (kLo * dx)) + (m * dy);
+			x = (int) (x0 + (sx * m));
+			y = (int) (y0 + (sy * kLo));
+		} else {
+			err = (err0 + (kLo * dy)) + (m * dx);
+			x = (int) (x0 + (sx * kLo));
+			y = (int) (y0 + (sy * m));
+		}
+		long e2;
+		for (long k = kLo; true; k++) {
+			pixels[(y * stride) + x] = rgb;
+			if (k == kHi) {
+				return;
+			}
+			e2 = 2 * err;
+			if (e2 >= dy) {
+				err += dy;
+				x += sx;
+			}
+			if (e2 <= dx) {
+				err += dx;
+				y += sy;
+			}
+		}
+	}
+
+	/**
+	 * Bresenham's error term is increased by {@code a} every iteration, and
+	 * decreased by {@code b} more if it was not less than {@code -floor(b / 2)}.
+	 * That is a rotation, so number of decreases over {@code k} iterations is
+	 * {@code floor((c + k * a) / b)}, {@code c} depending on initial error term.
+	 * This finds the first iteration in {@code [0, n]}, after which there were
+	 * {@code target} decreases, or {@code n + 1} if there is no such.
+	 */
+	private static long firstReaching(long a, long b, long c, long n, long target) {
+		long k;
+		if (a == 0) {
+			k = (Math.floorDiv(c, b) >= target) ? 0 : (n + 1);
+		} else {
+			// Smallest k with c + k * a >= target * b
+			k = -Rasteriser.floorDiv(target, -b, c, a);
+		}
+		return Math.max(0, Math.min(n + 1, k));
+	}
+
+	/**
+	 * @return {@code floor((p * q + r) / d)} for positive {@code d}, exact even
+	 *         if product does not fit a long, as for lines far beyond the image.
+	 */
+	private static long floorDiv(long p, long q, long r, long d) {
+		if ((p == 0) || (Math.abs(q) <= ((Long.MAX_VALUE >> 2) / Math.abs(p)))) {
+			return Math.floorDiv((p * q) + r, d);
+		}
+		BigInteger sum = BigInteger.valueOf(p).multiply(BigInteger.valueOf(q)).add(BigInteger.valueOf(r));
+		BigInteger divisor = BigInteger.valueOf(d);
+		return sum.subtract(sum.mod(divisor)).divide(divisor).longValue();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+}
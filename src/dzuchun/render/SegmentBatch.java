@@ -0,0 +1,63 @@
+package dzuchun.render;
+
+import java.util.Arrays;
+
+/**
+ * Line segments to be drawn by a {@link Rasteriser} in a single pass, stored
+ * as flat primitive arrays. Colours are packed {@code 0xAARRGGBB} integers, so
+ * no colour objects are involved. Segments are drawn in order they were added,
+ * later ones over earlier ones.
+ *
+ * @author dzu
+ *
+ */
+public class SegmentBatch {
+	// x0, y0, x1, y1 of every segment
+	int[] coords;
+	int[] colors;
+	int size;
+
+	/**
+	 * @param capacityIn Initial number of segments. Batch grows, if needed.
+	 */
+	public SegmentBatch(int capacityIn) {
+		colors = new int[Math.max(capacityIn, 1)];
+		coords = new int[colors.length * 4];
+	}
+
+	/**
+	 * Adds a segment. Both ends are drawn.
+	 *
+	 * @param x0  1st end column.
+	 * @param y0  1st end row.
+	 * @param x1  2nd end column.
+	 * @param y1  2nd end row.
+	 * @param rgb Packed colour, as returned by {@link java.awt.Color#getRGB()}.
+	 */
+	public void add(int x0, int y0, int x1, int y1, int rgb) {
+		if (size == colors.length) {
+			colors = Arrays.copyOf(colors, size * 2);
+			coords = Arrays.copyOf(coords, size * 8);
+		}
+		int base = size * 4;
+		coords[base] = x0;
+		coords[base + 1] = y0;
+		coords[base + 2] = x1;
+		coords[base + 3] = y1;
+		colors[size++] = rgb;
+	}
+
+	/**
+	 * Removes all the segments, keeping allocated arrays.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return Number of segments.
+	 */
+	public int size() {
+		return size;
+	}
+}